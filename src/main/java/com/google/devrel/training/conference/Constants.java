@@ -14,4 +14,9 @@ public class Constants {
     public static final String API_EXPLORER_CLIENT_ID = Constant.API_EXPLORER_CLIENT_ID;
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
-}
\ No newline at end of file
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "X-Idempotency-Key";
+    public static final String MEMCACHE_IDEMPOTENCY_PREFIX = "IDEMPOTENCY:";
+
+    public static final String MEMCACHE_TRENDING_KEY = "TRENDING_CONFERENCES";
+}
@@ -0,0 +1,166 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfNull;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A Conference that ended long ago, moved out of the Conference kind by ArchivalJob.
+ *
+ * It keeps the same parent and id as the Conference it replaces, so the websafe key of the
+ * Conference still finds it. Only endDate is indexed; the Conference indexes used by the list
+ * queries stop growing with the history.
+ */
+@Entity
+public class ArchivedConference {
+
+    @Id
+    private long id;
+
+    /**
+     * Holds the organizer's Profile key as the parent, like Conference.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    private String organizerUserId;
+
+    private String name;
+
+    @IgnoreSave(IfNull.class)
+    private String description;
+
+    @IgnoreSave(IfNull.class)
+    private byte[] compressedDescription;
+
+    private List<String> topics;
+
+    private String city;
+
+    private Date startDate;
+
+    @Index
+    private Date endDate;
+
+    private int month;
+
+    private int maxAttendees;
+
+    /**
+     * The seats left when the Conference was archived.
+     */
+    private int seatsAvailable;
+
+    /**
+     * When the Conference was archived.
+     */
+    private Date archived;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ArchivedConference() {}
+
+    ArchivedConference(Key<Conference> conferenceKey, String organizerUserId, String name,
+                       String description, byte[] compressedDescription, List<String> topics,
+                       String city, Date startDate, Date endDate, int month, int maxAttendees,
+                       int seatsAvailable) {
+        this.id = conferenceKey.getId();
+        this.profileKey = conferenceKey.getParent();
+        this.organizerUserId = organizerUserId;
+        this.name = name;
+        this.description = description;
+        this.compressedDescription = compressedDescription;
+        this.topics = topics;
+        this.city = city;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.month = month;
+        this.maxAttendees = maxAttendees;
+        this.seatsAvailable = seatsAvailable;
+        this.archived = new Date();
+    }
+
+    /**
+     * Returns the key of the archive copy of a Conference.
+     *
+     * @param conferenceKey the Conference key.
+     * @return the ArchivedConference key.
+     */
+    public static Key<ArchivedConference> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey.getParent(), ArchivedConference.class,
+                conferenceKey.getId());
+    }
+
+    /**
+     * Returns the key the Conference had before it was archived.
+     */
+    public Key<Conference> getConferenceKey() {
+        return Key.create(profileKey, Conference.class, id);
+    }
+
+    /**
+     * Rebuilds the Conference for API responses. It is read-only: saving it would bring the
+     * Conference back without its seat inventory.
+     *
+     * @return the Conference, with archived set.
+     */
+    public Conference toConference() {
+        return Conference.fromArchive(this);
+    }
+
+    public String getOrganizerUserId() {
+        return organizerUserId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    String getStoredDescription() {
+        return description;
+    }
+
+    byte[] getCompressedDescription() {
+        return compressedDescription;
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public Date getArchived() {
+        return archived;
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * A registration seen from the Conference side: the reverse of
+ * Profile.conferenceKeysToAttend.
+ *
+ * The Attendee is a child of the Conference, keyed by the attendee's userId, so the roster of
+ * a Conference is an ancestor query in key order. It is saved and deleted in the same
+ * transaction as the registration it mirrors, except after a confirmed seat hold, where a
+ * task added in the confirming transaction saves it.
+ */
+@Entity
+public class Attendee {
+
+    /**
+     * The userId of the attendee.
+     */
+    @Id
+    private String userId;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * When the attendee registered.
+     */
+    private Date registered;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Attendee() {}
+
+    public Attendee(final Key<Conference> conferenceKey, final String userId) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.registered = new Date();
+    }
+
+    /**
+     * Returns the key of the Attendee of a user at a Conference.
+     *
+     * @param conferenceKey the Conference key.
+     * @param userId the userId of the attendee.
+     * @return the Attendee key.
+     */
+    public static Key<Attendee> keyOf(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, Attendee.class, userId);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    /**
+     * Returns a defensive copy of registered if not null.
+     * @return a defensive copy of registered if not null.
+     */
+    public Date getRegistered() {
+        return registered == null ? null : new Date(registered.getTime());
+    }
+}
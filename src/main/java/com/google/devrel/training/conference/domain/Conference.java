@@ -5,15 +5,18 @@ import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.TextCompression;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.*;
 import com.googlecode.objectify.condition.IfNotDefault;
+import com.googlecode.objectify.condition.IfNotNull;
+import com.googlecode.objectify.condition.IfNull;
 
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
 
 /**
  * Conference class stores conference information.
@@ -23,7 +26,16 @@ public class Conference {
 
     private static final String DEFAULT_CITY = "Default City";
 
-    private static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
+    /**
+     * The placeholder topics of a Conference created without any.
+     */
+    public static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
+
+    /**
+     * Descriptions at least this long are stored compressed.
+     */
+    private static final int COMPRESSION_THRESHOLD =
+            Integer.getInteger("conference.description.compressThreshold", 512);
 
     /**
      * The id for the datastore key.
@@ -40,10 +52,24 @@ public class Conference {
     private String name;
 
     /**
-     * The description of the conference.
+     * The description of the conference, when it is short. A long one is stored compressed
+     * in compressedDescription instead, and this is null.
      */
+    @IgnoreSave(IfNull.class)
     private String description;
 
+    /**
+     * The deflated description, for descriptions of COMPRESSION_THRESHOLD characters or more.
+     */
+    @IgnoreSave(IfNull.class)
+    private byte[] compressedDescription;
+
+    /**
+     * The description inflated from compressedDescription on first use.
+     */
+    @Ignore
+    private String inflatedDescription;
+
     /**
      * Holds Profile key as the parent.
      */
@@ -75,7 +101,10 @@ public class Conference {
 
     /**
      * The ending date of this conference.
+     *
+     * Indexed for ArchivalJob, which looks up conferences that ended long ago.
      */
+    @Index(IfNotNull.class)
     private Date endDate;
 
     /**
@@ -93,11 +122,37 @@ public class Conference {
     private int maxAttendees;
 
     /**
-     * Number of seats currently available.
+     * Number of seats available, as stored before ConferenceInventory existed.
+     *
+     * Only read from old entities that have no ConferenceInventory yet; never saved.
      */
-    @Index
+    @IgnoreSave
     private int seatsAvailable;
 
+    /**
+     * The seat inventory version, as stored before ConferenceInventory existed; never saved.
+     */
+    @IgnoreSave
+    private long seatsVersion;
+
+    /**
+     * The seat inventory, loaded on first use unless attached by the caller.
+     */
+    @Ignore
+    private ConferenceInventory inventory;
+
+    /**
+     * The display name of the organizer, when attached by the caller.
+     */
+    @Ignore
+    private String organizerDisplayName;
+
+    /**
+     * Whether this Conference was rebuilt from an ArchivedConference.
+     */
+    @Ignore
+    private boolean archived;
+
     /**
      * Just making the default constructor private.
      */
@@ -109,6 +164,7 @@ public class Conference {
         this.id = id;
         this.profileKey = Key.create(Profile.class, organizerUserId);
         this.organizerUserId = organizerUserId;
+        this.inventory = new ConferenceInventory(getKey(), 0, 0, null, 0);
         updateWithConferenceForm(conferenceForm);
     }
 
@@ -120,8 +176,17 @@ public class Conference {
         return name;
     }
 
+    /**
+     * Returns the description, inflating a compressed one on first use.
+     *
+     * @return the description.
+     */
     public String getDescription() {
-        return description;
+        if (description == null && compressedDescription != null
+                && inflatedDescription == null) {
+            inflatedDescription = TextCompression.inflate(compressedDescription);
+        }
+        return description != null ? description : inflatedDescription;
     }
 
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
@@ -129,9 +194,14 @@ public class Conference {
         return profileKey;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getKey() {
+        return Key.create(profileKey, Conference.class, id);
+    }
+
     // Get a String version of the key
     public String getWebsafeKey() {
-        return Key.create(profileKey, Conference.class, id).getString();
+        return getKey().getString();
     }
 
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
@@ -145,8 +215,11 @@ public class Conference {
      * @return organizer's display name. If there is no Profile, return his/her userId.
      */
     public String getOrganizerDisplayName() {
+        if (organizerDisplayName != null) {
+            return organizerDisplayName;
+        }
         // Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
-        Profile organizer = ofy().load().key(getProfileKey()).now();
+        Profile organizer = repository().load(getProfileKey());
         if (organizer == null) {
             return organizerUserId;
         } else {
@@ -191,7 +264,56 @@ public class Conference {
     }
 
     public int getSeatsAvailable() {
-        return seatsAvailable;
+        return getInventory().getSeatsAvailable();
+    }
+
+    public long getSeatsVersion() {
+        return getInventory().getSeatsVersion();
+    }
+
+    /**
+     * Returns whether the Conference has ended and was moved to the archive.
+     */
+    public boolean getArchived() {
+        return archived;
+    }
+
+    /**
+     * Returns the seat inventory, loading it if it isn't attached yet.
+     *
+     * @return the ConferenceInventory. For a Conference created before inventories were split
+     *         out, one built from the legacy fields, which is saved on the first booking.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public ConferenceInventory getInventory() {
+        if (inventory == null) {
+            inventory = repository().load(ConferenceInventory.keyOf(getKey()));
+            if (inventory == null) {
+                inventory = new ConferenceInventory(getKey(), maxAttendees, seatsAvailable, city,
+                        seatsVersion);
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Attaches a seat inventory loaded by the caller, e.g. in a batch for many conferences.
+     *
+     * @param inventory the ConferenceInventory of this Conference.
+     */
+    public void attachInventory(ConferenceInventory inventory) {
+        this.inventory = inventory;
+    }
+
+    /**
+     * Attaches the organizer's display name resolved by the caller, e.g. in a batch for many
+     * conferences, so getOrganizerDisplayName() doesn't load the Profile.
+     *
+     * @param organizer the organizer's Profile, or null when there is none.
+     */
+    public void attachOrganizer(Profile organizer) {
+        this.organizerDisplayName =
+                organizer == null ? organizerUserId : organizer.getDisplayName();
     }
 
     /**
@@ -202,7 +324,7 @@ public class Conference {
      */
     public void updateWithConferenceForm(ConferenceForm conferenceForm) {
         this.name = conferenceForm.getName();
-        this.description = conferenceForm.getDescription();
+        setDescription(conferenceForm.getDescription());
         List<String> topics = conferenceForm.getTopics();
         this.topics = topics == null || topics.isEmpty() ? DEFAULT_TOPICS : topics;
         this.city = conferenceForm.getCity() == null ? DEFAULT_CITY : conferenceForm.getCity();
@@ -218,30 +340,56 @@ public class Conference {
             // Calendar.MONTH is zero based, so adding 1.
             this.month = calendar.get(calendar.MONTH) + 1;
         }
-        // Check maxAttendees value against the number of already allocated seats.
-        int seatsAllocated = maxAttendees - seatsAvailable;
-        if (conferenceForm.getMaxAttendees() < seatsAllocated) {
-            throw new IllegalArgumentException(seatsAllocated + " seats are already allocated, "
-                    + "but you tried to set maxAttendees to " + conferenceForm.getMaxAttendees());
-        }
-        // The initial number of seatsAvailable is the same as maxAttendees.
-        // However, if there are already some seats allocated, we should subtract that numbers.
+        // The inventory checks maxAttendees against the seats already allocated.
+        getInventory().update(conferenceForm.getMaxAttendees(), this.city);
         this.maxAttendees = conferenceForm.getMaxAttendees();
-        this.seatsAvailable = this.maxAttendees - seatsAllocated;
     }
 
-    public void bookSeats(final int number) {
-        if (seatsAvailable < number) {
-            throw new IllegalArgumentException("There are no seats available.");
-        }
-        seatsAvailable = seatsAvailable - number;
+    /**
+     * Returns the archive copy of this Conference, with its final seat count.
+     *
+     * @return the ArchivedConference, with the same parent and id.
+     */
+    public ArchivedConference archive() {
+        return new ArchivedConference(getKey(), organizerUserId, name, description,
+                compressedDescription, topics, city, startDate, endDate, month, maxAttendees,
+                getInventory().getSeatsAvailable());
+    }
+
+    /**
+     * Rebuilds a Conference from its archive copy, see ArchivedConference.toConference().
+     */
+    static Conference fromArchive(ArchivedConference archivedConference) {
+        Conference conference = new Conference();
+        Key<Conference> key = archivedConference.getConferenceKey();
+        conference.id = key.getId();
+        conference.profileKey = key.getParent();
+        conference.organizerUserId = archivedConference.getOrganizerUserId();
+        conference.name = archivedConference.getName();
+        conference.description = archivedConference.getStoredDescription();
+        conference.compressedDescription = archivedConference.getCompressedDescription();
+        conference.topics = archivedConference.getTopics();
+        conference.city = archivedConference.getCity();
+        conference.startDate = archivedConference.getStartDate();
+        conference.endDate = archivedConference.getEndDate();
+        conference.month = archivedConference.getMonth();
+        conference.maxAttendees = archivedConference.getMaxAttendees();
+        conference.inventory = new ConferenceInventory(key, archivedConference.getMaxAttendees(),
+                archivedConference.getSeatsAvailable(), archivedConference.getCity(), 0);
+        conference.archived = true;
+        return conference;
     }
 
-    public void giveBackSeats(final int number) {
-        if (seatsAvailable + number > maxAttendees) {
-            throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
+    private void setDescription(String description) {
+        if (description != null && description.length() >= COMPRESSION_THRESHOLD) {
+            this.compressedDescription = TextCompression.deflate(description);
+            this.description = null;
+            this.inflatedDescription = description;
+        } else {
+            this.compressedDescription = null;
+            this.description = description;
+            this.inflatedDescription = null;
         }
-        seatsAvailable = seatsAvailable + number;
     }
 
     @Override
@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * The response of the getConferences API.
+ */
+public class ConferenceBatch {
+
+    /**
+     * The conferences found, in the order their keys were requested.
+     */
+    private List<ConferenceResponse> items;
+
+    /**
+     * The requested keys with no Conference, including keys that are not Conference keys.
+     */
+    private List<String> notFound;
+
+    public ConferenceBatch() {}
+
+    public ConferenceBatch(List<ConferenceResponse> items, List<String> notFound) {
+        this.items = ImmutableList.copyOf(items);
+        this.notFound = ImmutableList.copyOf(notFound);
+    }
+
+    public List<ConferenceResponse> getItems() {
+        return items;
+    }
+
+    public List<String> getNotFound() {
+        return notFound;
+    }
+}
@@ -0,0 +1,43 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * Everything the conference detail page needs, returned in one call.
+ */
+public class ConferenceDetail {
+
+    /**
+     * The Conference.
+     */
+    private Conference conference;
+
+    /**
+     * The display name of the organizer, or the organizer's userId if there is no Profile.
+     */
+    private String organizerDisplayName;
+
+    /**
+     * Whether the caller is registered to attend the Conference.
+     */
+    private boolean registered;
+
+    public ConferenceDetail() {}
+
+    public ConferenceDetail(Conference conference, String organizerDisplayName,
+                            boolean registered) {
+        this.conference = conference;
+        this.organizerDisplayName = organizerDisplayName;
+        this.registered = registered;
+    }
+
+    public Conference getConference() {
+        return conference;
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+}
@@ -0,0 +1,173 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * The seat inventory of a Conference, kept apart from its metadata.
+ *
+ * Bookings only rewrite this small entity, so the Conference itself is written once on
+ * creation and its cache entry stays valid. Each Conference has exactly one inventory, a
+ * child with the fixed id ID.
+ */
+@Entity @Cache
+public class ConferenceInventory {
+
+    /**
+     * The id of every ConferenceInventory under its Conference.
+     */
+    public static final long ID = 1;
+
+    @Id
+    private long id = ID;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * Number of seats currently available.
+     */
+    @Index
+    private int seatsAvailable;
+
+    /**
+     * The maximum capacity of the conference, a copy of Conference.maxAttendees.
+     */
+    private int maxAttendees;
+
+    /**
+     * The city of the conference, a copy of Conference.city for the seat queries.
+     */
+    @Index
+    private String city;
+
+    /**
+     * The version of the seat inventory, bumped whenever seatsAvailable changes.
+     *
+     * It is based on the current time, so versions of different conferences can be compared
+     * with a single "since" value.
+     */
+    private long seatsVersion;
+
+    /**
+     * The number of SeatHoldSlot indices of this Conference. The seats of the existing slots
+     * are not part of seatsAvailable; a slot whose seat went back here is recreated by the
+     * next hold that needs it.
+     */
+    private int holdPoolSize;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceInventory() {}
+
+    public ConferenceInventory(Key<Conference> conferenceKey, int maxAttendees,
+                               int seatsAvailable, String city, long seatsVersion) {
+        this.conferenceKey = conferenceKey;
+        this.maxAttendees = maxAttendees;
+        this.seatsAvailable = seatsAvailable;
+        this.city = city;
+        this.seatsVersion = seatsVersion;
+    }
+
+    /**
+     * Returns the key of the inventory of a Conference.
+     *
+     * @param conferenceKey the Conference key.
+     * @return the ConferenceInventory key.
+     */
+    public static Key<ConferenceInventory> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, ConferenceInventory.class, ID);
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public long getSeatsVersion() {
+        return seatsVersion;
+    }
+
+    public int getHoldPoolSize() {
+        return holdPoolSize;
+    }
+
+    /**
+     * Moves seats into a new hold pool.
+     *
+     * @param size the number of seats, one per SeatHoldSlot.
+     * @throws IllegalArgumentException when there are not enough seats available.
+     */
+    public void allocateHoldPool(int size) {
+        bookSeats(size);
+        holdPoolSize = size;
+    }
+
+    /**
+     * Applies a new capacity and city from the ConferenceForm.
+     *
+     * @param maxAttendees the new maximum capacity.
+     * @param city the new city.
+     * @throws IllegalArgumentException when more seats are already allocated.
+     */
+    public void update(int maxAttendees, String city) {
+        // Check maxAttendees value against the number of already allocated seats.
+        int seatsAllocated = this.maxAttendees - seatsAvailable;
+        if (maxAttendees < seatsAllocated) {
+            throw new IllegalArgumentException(seatsAllocated + " seats are already allocated, "
+                    + "but you tried to set maxAttendees to " + maxAttendees);
+        }
+        // The initial number of seatsAvailable is the same as maxAttendees.
+        // However, if there are already some seats allocated, we should subtract that numbers.
+        this.maxAttendees = maxAttendees;
+        this.seatsAvailable = maxAttendees - seatsAllocated;
+        this.city = city;
+        bumpSeatsVersion();
+    }
+
+    public void bookSeats(final int number) {
+        if (seatsAvailable < number) {
+            throw new IllegalArgumentException("There are no seats available.");
+        }
+        seatsAvailable = seatsAvailable - number;
+        bumpSeatsVersion();
+    }
+
+    public void giveBackSeats(final int number) {
+        if (seatsAvailable + number > maxAttendees) {
+            throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
+        }
+        seatsAvailable = seatsAvailable + number;
+        bumpSeatsVersion();
+    }
+
+    /**
+     * Moves seatsVersion forward, to the current time if that is later.
+     */
+    private void bumpSeatsVersion() {
+        seatsVersion = Math.max(seatsVersion + 1, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,122 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Conference as returned by the list and get APIs, limited to the properties the client
+ * selected.
+ *
+ * The getters of unselected properties return null, so Endpoints leaves them out and never
+ * computes them; in particular organizerDisplayName and seatsAvailable skip their loads. The
+ * Conference itself is left untouched, since the same instance may be shared with the rest
+ * of the request through the EntitySession.
+ */
+public class ConferenceResponse {
+
+    /**
+     * The properties of a Conference in API responses, the names a FieldMask may select.
+     */
+    public static final Set<String> FIELDS = ImmutableSet.of("id", "name", "description",
+            "websafeKey", "organizerDisplayName", "topics", "city", "startDate", "endDate",
+            "month", "maxAttendees", "seatsAvailable", "seatsVersion", "archived");
+
+    private final Conference conference;
+
+    private final FieldMask fieldMask;
+
+    private final boolean includeDescription;
+
+    /**
+     * @param conference the Conference.
+     * @param fieldMask the selected properties.
+     * @param includeDescription whether to return the description; naming description in the
+     *         mask returns it too.
+     */
+    public ConferenceResponse(Conference conference, FieldMask fieldMask,
+                              boolean includeDescription) {
+        this.conference = conference;
+        this.fieldMask = fieldMask;
+        this.includeDescription = includeDescription || fieldMask.names("description");
+    }
+
+    /**
+     * Wraps conferences for a list response.
+     *
+     * @param conferences the conferences, in response order.
+     * @param fieldMask the selected properties.
+     * @param includeDescription whether to return the descriptions.
+     * @return one ConferenceResponse per Conference.
+     */
+    public static List<ConferenceResponse> of(Collection<Conference> conferences,
+                                              FieldMask fieldMask, boolean includeDescription) {
+        List<ConferenceResponse> responses = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            responses.add(new ConferenceResponse(conference, fieldMask, includeDescription));
+        }
+        return responses;
+    }
+
+    public Long getId() {
+        return fieldMask.includes("id") ? conference.getId() : null;
+    }
+
+    public String getName() {
+        return fieldMask.includes("name") ? conference.getName() : null;
+    }
+
+    public String getDescription() {
+        return includeDescription && fieldMask.includes("description")
+                ? conference.getDescription() : null;
+    }
+
+    public String getWebsafeKey() {
+        return fieldMask.includes("websafeKey") ? conference.getWebsafeKey() : null;
+    }
+
+    public String getOrganizerDisplayName() {
+        return fieldMask.includes("organizerDisplayName")
+                ? conference.getOrganizerDisplayName() : null;
+    }
+
+    public List<String> getTopics() {
+        return fieldMask.includes("topics") ? conference.getTopics() : null;
+    }
+
+    public String getCity() {
+        return fieldMask.includes("city") ? conference.getCity() : null;
+    }
+
+    public Date getStartDate() {
+        return fieldMask.includes("startDate") ? conference.getStartDate() : null;
+    }
+
+    public Date getEndDate() {
+        return fieldMask.includes("endDate") ? conference.getEndDate() : null;
+    }
+
+    public Integer getMonth() {
+        return fieldMask.includes("month") ? conference.getMonth() : null;
+    }
+
+    public Integer getMaxAttendees() {
+        return fieldMask.includes("maxAttendees") ? conference.getMaxAttendees() : null;
+    }
+
+    public Integer getSeatsAvailable() {
+        return fieldMask.includes("seatsAvailable") ? conference.getSeatsAvailable() : null;
+    }
+
+    public Long getSeatsVersion() {
+        return fieldMask.includes("seatsVersion") ? conference.getSeatsVersion() : null;
+    }
+
+    public Boolean getArchived() {
+        return fieldMask.includes("archived") ? conference.getArchived() : null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * The properties a client asked for with a select parameter, e.g. select=name,city.
+ *
+ * The masking is done by the response wrappers: a ConferenceResponse or ProfileResponse
+ * built with a mask returns null from the getters of the other properties, which leaves them
+ * out of the response and skips the loads behind derived ones such as organizerDisplayName
+ * and seatsAvailable. The Conference and Profile entities themselves are never masked.
+ */
+public class FieldMask {
+
+    /**
+     * The mask selecting every property, used when the client sends no select parameter.
+     */
+    public static final FieldMask ALL = new FieldMask(null);
+
+    /**
+     * The selected properties, or null for all of them.
+     */
+    private final Set<String> fields;
+
+    private FieldMask(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Parses a comma separated select parameter.
+     *
+     * @param fields the parameter, or null or empty to select every property.
+     * @param known the properties the response type has.
+     * @return the FieldMask.
+     * @throws IllegalArgumentException when a field is not one of the known properties.
+     */
+    public static FieldMask parse(String fields, Set<String> known) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return ALL;
+        }
+        ImmutableSet<String> selected = ImmutableSet.copyOf(
+                Splitter.on(',').trimResults().omitEmptyStrings().split(fields));
+        for (String field : selected) {
+            if (!known.contains(field)) {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        }
+        return new FieldMask(selected);
+    }
+
+    /**
+     * Returns whether a property is part of the response.
+     */
+    public boolean includes(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    /**
+     * Returns whether the client named a property explicitly, rather than selecting all.
+     */
+    public boolean names(String field) {
+        return fields != null && fields.contains(field);
+    }
+
+    /**
+     * Returns whether this mask selects every property.
+     */
+    public boolean isAll() {
+        return fields == null;
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * IdempotencyRecord stores the outcome of a registration call made with an idempotency key.
+ *
+ * The record is a child of the caller's Profile, so it is saved in the same transaction
+ * (and the same entity group) as the registration it describes.
+ */
+@Entity
+public class IdempotencyRecord implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The operation, target and client supplied key, e.g. "register:{websafeKey}:{key}".
+     */
+    @Id
+    private String id;
+
+    /**
+     * Holds Profile key as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * Whether the original call succeeded.
+     */
+    private boolean result;
+
+    /**
+     * The reason returned by the original call.
+     */
+    private String reason;
+
+    /**
+     * When the original call was recorded.
+     */
+    private Date created;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private IdempotencyRecord() {}
+
+    public IdempotencyRecord(final Key<IdempotencyRecord> key, final boolean result,
+                             final String reason) {
+        this.id = key.getName();
+        this.profileKey = key.getParent();
+        this.result = result;
+        this.reason = reason;
+        this.created = new Date();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public boolean getResult() {
+        return result;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Returns a defensive copy of created if not null.
+     * @return a defensive copy of created if not null.
+     */
+    public Date getCreated() {
+        return created == null ? null : new Date(created.getTime());
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The lines one batch of a JobShard emitted for the finish step of its job.
+ *
+ * Each batch gets its own child of the shard, keyed by the batch number, and is saved with
+ * the checkpoint of that batch. A shard entity therefore stays small however much its job
+ * emits, and a batch that runs again overwrites its own output.
+ */
+@Entity
+public class JobOutput {
+
+    /**
+     * The number of the batch, see JobShard.getBatches().
+     */
+    @Id
+    private long batch;
+
+    @Parent
+    private Key<JobShard> shardKey;
+
+    private List<String> lines = new ArrayList<>();
+
+    /**
+     * Just making the default constructor private.
+     */
+    private JobOutput() {}
+
+    public JobOutput(Key<JobShard> shardKey, long batch, List<String> lines) {
+        this.shardKey = shardKey;
+        this.batch = batch;
+        this.lines = new ArrayList<>(lines);
+    }
+
+    /**
+     * Returns the key of the output of a batch.
+     *
+     * @param shardKey the JobShard key.
+     * @param batch the number of the batch, starting at 1.
+     * @return the JobOutput key.
+     */
+    public static Key<JobOutput> keyOf(Key<JobShard> shardKey, long batch) {
+        return Key.create(shardKey, JobOutput.class, batch);
+    }
+
+    public List<String> getLines() {
+        return ImmutableList.copyOf(lines);
+    }
+}
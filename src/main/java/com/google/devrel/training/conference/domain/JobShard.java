@@ -0,0 +1,197 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One key range of a JobState, with its progress.
+ *
+ * The shard covers the keys from start (inclusive) to end (exclusive); a null bound is open.
+ * It is worked through in batches, and the cursor after the last committed batch is saved
+ * as a checkpoint, so a failed or timed out task resumes where the previous one stopped.
+ * What a batch emits is saved with its checkpoint as a JobOutput child of the shard.
+ */
+@Entity
+public class JobShard {
+
+    /**
+     * The job id followed by the shard index, e.g. "announcements-1400000000000/3".
+     */
+    @Id
+    private String id;
+
+    private String jobId;
+
+    private int index;
+
+    private Key<?> start;
+
+    private Key<?> end;
+
+    /**
+     * The cursor after the last committed batch, null before the first one.
+     */
+    private String cursor;
+
+    /**
+     * The sequence number of the task allowed to work on the shard; bumped whenever the
+     * shard is handed over to a continuation task, so stale retries stop.
+     */
+    private long sequence;
+
+    private long processed;
+
+    private int batches;
+
+    private int failures;
+
+    private String lastError;
+
+    private boolean done;
+
+    /**
+     * Lines emitted by the current batch, saved as a JobOutput with its checkpoint.
+     */
+    @Ignore
+    private List<String> output = new ArrayList<>();
+
+    private Date updated;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private JobShard() {}
+
+    public JobShard(final String jobId, final int index, final Key<?> start, final Key<?> end) {
+        this.id = idOf(jobId, index);
+        this.jobId = jobId;
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.updated = new Date();
+    }
+
+    /**
+     * Returns the key of a shard.
+     *
+     * @param jobId the id of the JobState.
+     * @param index the index of the shard.
+     * @return the JobShard key.
+     */
+    public static Key<JobShard> keyOf(String jobId, int index) {
+        return Key.create(JobShard.class, idOf(jobId, index));
+    }
+
+    private static String idOf(String jobId, int index) {
+        return jobId + "/" + index;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Key<?> getStart() {
+        return start;
+    }
+
+    public Key<?> getEnd() {
+        return end;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public Key<JobShard> getKey() {
+        return Key.create(JobShard.class, id);
+    }
+
+    /**
+     * Returns a defensive copy of updated if not null.
+     * @return a defensive copy of updated if not null.
+     */
+    public Date getUpdated() {
+        return updated == null ? null : new Date(updated.getTime());
+    }
+
+    /**
+     * Adds a line for the finish step of the job. Kept with the next checkpoint.
+     *
+     * @param line the line.
+     */
+    public void emit(String line) {
+        output.add(line);
+    }
+
+    /**
+     * Returns the lines emitted since the last call, as the output of the latest batch.
+     *
+     * @return the JobOutput to save with the checkpoint, or null when nothing was emitted.
+     */
+    public JobOutput takeOutput() {
+        if (output.isEmpty()) {
+            return null;
+        }
+        JobOutput batchOutput = new JobOutput(getKey(), batches, output);
+        output = new ArrayList<>();
+        return batchOutput;
+    }
+
+    /**
+     * Records a processed batch.
+     *
+     * @param nextCursor the cursor after the batch, or null when the range is exhausted.
+     * @param count the number of entities in the batch.
+     */
+    public void advance(String nextCursor, int count) {
+        cursor = nextCursor;
+        processed += count;
+        batches++;
+        done = nextCursor == null;
+        updated = new Date();
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public void recordFailure(String error) {
+        failures++;
+        lastError = error;
+        updated = new Date();
+    }
+}
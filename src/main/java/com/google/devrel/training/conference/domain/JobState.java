@@ -0,0 +1,107 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * One run of a sharded background job.
+ *
+ * The shards of the run are separate JobShard entities, so checkpointing shards don't
+ * contend on this entity group.
+ */
+@Entity
+public class JobState {
+
+    public static enum Status {
+        /**
+         * Shards are still working.
+         */
+        RUNNING,
+        /**
+         * Every shard is done and the finish task is enqueued.
+         */
+        FINISHING,
+        /**
+         * The job finished.
+         */
+        DONE
+    }
+
+    /**
+     * The name of the job followed by its start time, e.g. "announcements-1400000000000".
+     */
+    @Id
+    private String id;
+
+    /**
+     * The name the job is registered under in JobService.
+     */
+    @Index
+    private String name;
+
+    private Status status;
+
+    private int shardCount;
+
+    @Index
+    private Date started;
+
+    private Date finished;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private JobState() {}
+
+    public JobState(final String id, final String name, final int shardCount) {
+        this.id = id;
+        this.name = name;
+        this.shardCount = shardCount;
+        this.status = Status.RUNNING;
+        this.started = new Date();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Returns a defensive copy of started if not null.
+     * @return a defensive copy of started if not null.
+     */
+    public Date getStarted() {
+        return started == null ? null : new Date(started.getTime());
+    }
+
+    /**
+     * Returns a defensive copy of finished if not null.
+     * @return a defensive copy of finished if not null.
+     */
+    public Date getFinished() {
+        return finished == null ? null : new Date(finished.getTime());
+    }
+
+    public void setFinishing() {
+        status = Status.FINISHING;
+    }
+
+    public void setDone() {
+        status = Status.DONE;
+        finished = new Date();
+    }
+}
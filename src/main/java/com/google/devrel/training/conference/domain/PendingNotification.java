@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * An event waiting to be mailed to a user in the next digest.
+ *
+ * The notification is a child of the recipient's Profile, so it is saved in the same
+ * transaction as the action it reports, and all the notifications of a user are read and
+ * deleted together when the digest is sent.
+ */
+@Entity
+public class PendingNotification {
+
+    public static enum Type {
+        CONFERENCE_CREATED,
+        REGISTERED,
+        UNREGISTERED
+    }
+
+    /**
+     * The creation time, type and Conference, e.g. "1400000000000:REGISTERED:{websafeKey}",
+     * so the notifications of a user are in time order by key.
+     */
+    @Id
+    private String id;
+
+    /**
+     * Holds the recipient's Profile key as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    private Type type;
+
+    private String websafeConferenceKey;
+
+    /**
+     * When the event happened, queried by the flusher.
+     */
+    @Index
+    private Date created;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private PendingNotification() {}
+
+    public PendingNotification(final Key<Profile> profileKey, final Type type,
+                               final String websafeConferenceKey) {
+        this.created = new Date();
+        this.id = String.format("%013d:%s:%s", created.getTime(), type, websafeConferenceKey);
+        this.profileKey = profileKey;
+        this.type = type;
+        this.websafeConferenceKey = websafeConferenceKey;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    /**
+     * Returns a defensive copy of created if not null.
+     * @return a defensive copy of created if not null.
+     */
+    public Date getCreated() {
+        return created == null ? null : new Date(created.getTime());
+    }
+}
@@ -1,13 +1,17 @@
 package com.google.devrel.training.conference.domain;
 
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 
 // TODO indicate that this class is an Entity
@@ -21,6 +25,13 @@ public class Profile {
 
 	// TODO indicate that the userId is to be used in the Entity's key
 	@Id String userId;
+
+	/**
+	 * Whether a field changed since this Profile was created or loaded. Not stored; a loaded
+	 * Profile starts clean.
+	 */
+	@Ignore
+	private boolean dirty;
     
     /**
      * Public constructor for Profile.
@@ -30,11 +41,13 @@ public class Profile {
      * @param teeShirtSize The User's tee shirt size
      * 
      */
-    public Profile (String userId, String displayName, String mainEmail, TeeShirtSize teeShirtSize) {
+    public Profile (String userId, String displayName, String mainEmail,
+                    TeeShirtSize teeShirtSize) {
     	this.userId = userId;
     	this.displayName = displayName;
     	this.mainEmail = mainEmail;
     	this.teeShirtSize = teeShirtSize;
+    	this.dirty = true;
     }
     
 	public String getDisplayName() {
@@ -53,14 +66,36 @@ public class Profile {
 		return userId;
 	}
 
+	/**
+	 * Returns true when this Profile has changes that are not saved yet.
+	 * @return true when this Profile has to be saved.
+	 */
+	@ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks this Profile as saved.
+	 */
+	public void markClean() {
+		dirty = false;
+	}
+
 	/**
      * Just making the default constructor private.
      */
     private Profile() {}
 
 	public void update(String displayName, TeeShirtSize teeShirtSize) {
-    	this.displayName = displayName;
-    	this.teeShirtSize = teeShirtSize;
+		if (!Objects.equals(this.displayName, displayName)) {
+			this.displayName = displayName;
+			dirty = true;
+		}
+		if (this.teeShirtSize != teeShirtSize) {
+			this.teeShirtSize = teeShirtSize;
+			dirty = true;
+		}
 	}
 
 
@@ -74,6 +109,7 @@ public class Profile {
 
 	public void addToConferenceKeysToAttend(String conferenceKey) {
 		conferenceKeysToAttend.add(conferenceKey);
+		dirty = true;
 	}
 
 	/**
@@ -84,6 +120,7 @@ public class Profile {
 	public void unregisterFromConference(String conferenceKey) {
 		if (conferenceKeysToAttend.contains(conferenceKey)) {
 			conferenceKeysToAttend.remove(conferenceKey);
+			dirty = true;
 		} else {
 			throw new IllegalArgumentException("Invalid conferenceKey: " + conferenceKey);
 		}
@@ -0,0 +1,51 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Profile as returned by getProfile and saveProfile, limited to the properties the client
+ * selected. The getters of unselected properties return null, so Endpoints leaves them out;
+ * the Profile itself is left untouched.
+ */
+public class ProfileResponse {
+
+    /**
+     * The properties of a Profile in API responses, the names a FieldMask may select.
+     */
+    public static final Set<String> FIELDS = ImmutableSet.of("displayName", "mainEmail",
+            "teeShirtSize", "userId", "conferenceKeysToAttend");
+
+    private final Profile profile;
+
+    private final FieldMask fieldMask;
+
+    public ProfileResponse(Profile profile, FieldMask fieldMask) {
+        this.profile = profile;
+        this.fieldMask = fieldMask;
+    }
+
+    public String getDisplayName() {
+        return fieldMask.includes("displayName") ? profile.getDisplayName() : null;
+    }
+
+    public String getMainEmail() {
+        return fieldMask.includes("mainEmail") ? profile.getMainEmail() : null;
+    }
+
+    public TeeShirtSize getTeeShirtSize() {
+        return fieldMask.includes("teeShirtSize") ? profile.getTeeShirtSize() : null;
+    }
+
+    public String getUserId() {
+        return fieldMask.includes("userId") ? profile.getUserId() : null;
+    }
+
+    public List<String> getConferenceKeysToAttend() {
+        return fieldMask.includes("conferenceKeysToAttend")
+                ? profile.getConferenceKeysToAttend() : null;
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A page of the attendees of a Conference, in userId order.
+ */
+public class Roster {
+
+    private List<RosterEntry> items;
+
+    /**
+     * Pass this back to get the next page; null on the last page.
+     */
+    private String nextPageToken;
+
+    public Roster() {}
+
+    public Roster(List<RosterEntry> items, String nextPageToken) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<RosterEntry> getItems() {
+        return items;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+}
@@ -0,0 +1,49 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * One attendee in the roster returned to the organizer of a Conference.
+ */
+public class RosterEntry {
+
+    private String userId;
+
+    /**
+     * The display name from the attendee's Profile, or the userId if there is no Profile.
+     */
+    private String displayName;
+
+    private String mainEmail;
+
+    private Date registered;
+
+    public RosterEntry() {}
+
+    public RosterEntry(Attendee attendee, Profile profile) {
+        this.userId = attendee.getUserId();
+        this.displayName = profile == null ? attendee.getUserId() : profile.getDisplayName();
+        this.mainEmail = profile == null ? null : profile.getMainEmail();
+        this.registered = attendee.getRegistered();
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getMainEmail() {
+        return mainEmail;
+    }
+
+    /**
+     * Returns a defensive copy of registered if not null.
+     * @return a defensive copy of registered if not null.
+     */
+    public Date getRegistered() {
+        return registered == null ? null : new Date(registered.getTime());
+    }
+}
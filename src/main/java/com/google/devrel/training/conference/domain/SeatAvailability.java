@@ -0,0 +1,42 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The seat inventory of a single Conference, without the rest of its data.
+ */
+public class SeatAvailability {
+
+    /**
+     * The websafe key of the Conference.
+     */
+    private String websafeConferenceKey;
+
+    /**
+     * Number of seats currently available.
+     */
+    private int seatsAvailable;
+
+    /**
+     * The version of the seat inventory, see Conference.getSeatsVersion().
+     */
+    private long version;
+
+    public SeatAvailability() {}
+
+    public SeatAvailability(String websafeConferenceKey, int seatsAvailable, long version) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.seatsAvailable = seatsAvailable;
+        this.version = version;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,37 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * The response of the seatAvailability API.
+ */
+public class SeatAvailabilityList {
+
+    /**
+     * The conferences whose seat inventory changed since the requested version.
+     */
+    private List<SeatAvailability> items;
+
+    /**
+     * The version to poll from next; clients pass it as sinceVersion on their next poll.
+     * It may be lower than the versions of the items, see SeatInventory.Lookup.
+     */
+    private long version;
+
+    public SeatAvailabilityList() {}
+
+    public SeatAvailabilityList(List<SeatAvailability> items, long version) {
+        this.items = ImmutableList.copyOf(items);
+        this.version = version;
+    }
+
+    public List<SeatAvailability> getItems() {
+        return items;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * The response of the holdSeat API: a seat kept for the caller until expires.
+ */
+public class SeatHold {
+
+    private String websafeConferenceKey;
+
+    /**
+     * The token to pass to confirmSeatHold or releaseSeatHold.
+     */
+    private String token;
+
+    private Date expires;
+
+    public SeatHold() {}
+
+    public SeatHold(String websafeConferenceKey, String token, Date expires) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.token = token;
+        this.expires = new Date(expires.getTime());
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public Date getExpires() {
+        return new Date(expires.getTime());
+    }
+}
@@ -0,0 +1,173 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.condition.IfNotNull;
+import com.googlecode.objectify.condition.IfNull;
+
+import java.util.Date;
+
+/**
+ * One seat of the hold pool of a Conference.
+ *
+ * The seats of the pool are taken out of the ConferenceInventory when the pool is allocated,
+ * so every slot stands for a seat nobody else can book. Each slot is the root of its own
+ * entity group, so holds and confirmations on different slots never contend with each other
+ * or with the inventory.
+ *
+ * A FREE slot can be held. A HELD slot belongs to a user until its hold expires. A CONFIRMED
+ * slot is a sold seat waiting for the sweeper to refill the slot from the inventory. A FREE
+ * slot nobody held for IDLE_SECONDS is deleted by the sweeper, which gives its seat back to
+ * the inventory.
+ */
+@Entity
+public class SeatHoldSlot {
+
+    /**
+     * How long a slot stays FREE before its seat goes back to the inventory.
+     */
+    private static final int IDLE_SECONDS =
+            Integer.getInteger("conference.seatHold.idleSeconds", 900);
+
+    public static enum State {
+        FREE,
+        HELD,
+        CONFIRMED
+    }
+
+    /**
+     * The websafe Conference key and the slot index, "{websafeKey}/{index}".
+     */
+    @Id
+    private String id;
+
+    private Key<Conference> conferenceKey;
+
+    private int index;
+
+    private State state = State.FREE;
+
+    /**
+     * The user holding or having confirmed the seat.
+     */
+    @IgnoreSave(IfNull.class)
+    private String userId;
+
+    /**
+     * The token handed out with the hold.
+     */
+    @IgnoreSave(IfNull.class)
+    private String token;
+
+    /**
+     * When the hold expires, for a CONFIRMED slot when it was confirmed, and for a FREE slot
+     * when it becomes idle. The sweeper queries it.
+     */
+    @Index(IfNotNull.class)
+    @IgnoreSave(IfNull.class)
+    private Date expires;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatHoldSlot() {}
+
+    public SeatHoldSlot(final Key<Conference> conferenceKey, final int index) {
+        this.id = idOf(conferenceKey, index);
+        this.conferenceKey = conferenceKey;
+        this.index = index;
+        this.expires = idleDeadline();
+    }
+
+    /**
+     * Returns the key of a slot of the hold pool of a Conference.
+     *
+     * @param conferenceKey the Conference key.
+     * @param index the slot index, from 0.
+     * @return the SeatHoldSlot key.
+     */
+    public static Key<SeatHoldSlot> keyOf(Key<Conference> conferenceKey, int index) {
+        return Key.create(SeatHoldSlot.class, idOf(conferenceKey, index));
+    }
+
+    private static String idOf(Key<Conference> conferenceKey, int index) {
+        return conferenceKey.getString() + "/" + index;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public Date getExpires() {
+        return expires == null ? null : new Date(expires.getTime());
+    }
+
+    /**
+     * Returns whether the slot can be held: it is free, or its hold has expired.
+     *
+     * @param now the current time.
+     */
+    public boolean isAvailable(Date now) {
+        return state == State.FREE || (state == State.HELD && !expires.after(now));
+    }
+
+    /**
+     * Returns whether the slot holds a seat for the user with the token at the given time.
+     */
+    public boolean isHeldBy(String userId, String token, Date now) {
+        return state == State.HELD && userId.equals(this.userId) && token.equals(this.token)
+                && expires.after(now);
+    }
+
+    public void hold(String userId, String token, Date expires) {
+        this.state = State.HELD;
+        this.userId = userId;
+        this.token = token;
+        this.expires = new Date(expires.getTime());
+    }
+
+    public void confirm() {
+        this.state = State.CONFIRMED;
+        this.token = null;
+        this.expires = new Date();
+    }
+
+    public void free() {
+        this.state = State.FREE;
+        this.userId = null;
+        this.token = null;
+        this.expires = idleDeadline();
+    }
+
+    /**
+     * Returns whether the slot is FREE and nobody held it for IDLE_SECONDS.
+     *
+     * @param now the current time.
+     */
+    public boolean isIdle(Date now) {
+        return state == State.FREE && expires != null && !expires.after(now);
+    }
+
+    private static Date idleDeadline() {
+        return new Date(System.currentTimeMillis() + IDLE_SECONDS * 1000L);
+    }
+}
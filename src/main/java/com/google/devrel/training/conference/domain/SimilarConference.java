@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * One entry of the similar conferences of a Conference.
+ */
+public class SimilarConference {
+
+    private String websafeConferenceKey;
+
+    private String name;
+
+    /**
+     * The similarity score, higher is more similar.
+     */
+    private double score;
+
+    public SimilarConference() {}
+
+    public SimilarConference(String websafeConferenceKey, String name, double score) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.name = name;
+        this.score = score;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,101 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The precomputed "people who attend this also attend" list of a Conference.
+ *
+ * Written by the similar conferences batch job as a child of the Conference with the fixed id
+ * ID. The entries are kept as parallel lists, best first, with the names denormalized so the
+ * list can be served without loading the other conferences.
+ */
+@Entity @Cache
+public class SimilarConferences {
+
+    /**
+     * The id of every SimilarConferences under its Conference.
+     */
+    public static final long ID = 1;
+
+    @Id
+    private long id = ID;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    private List<String> websafeConferenceKeys = new ArrayList<>();
+
+    private List<String> names = new ArrayList<>();
+
+    private List<Double> scores = new ArrayList<>();
+
+    /**
+     * When the list was computed.
+     */
+    private Date computed;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SimilarConferences() {}
+
+    public SimilarConferences(final Key<Conference> conferenceKey) {
+        this.conferenceKey = conferenceKey;
+        this.computed = new Date();
+    }
+
+    /**
+     * Returns the key of the SimilarConferences of a Conference.
+     *
+     * @param conferenceKey the Conference key.
+     * @return the SimilarConferences key.
+     */
+    public static Key<SimilarConferences> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, SimilarConferences.class, ID);
+    }
+
+    /**
+     * Appends an entry; entries have to be added best first.
+     *
+     * @param conference the similar Conference.
+     * @param score its similarity score.
+     */
+    public void add(Conference conference, double score) {
+        websafeConferenceKeys.add(conference.getWebsafeKey());
+        names.add(conference.getName());
+        scores.add(score);
+    }
+
+    /**
+     * Returns the entries, best first.
+     *
+     * @return the entries as SimilarConference objects.
+     */
+    public List<SimilarConference> getItems() {
+        List<SimilarConference> items = new ArrayList<>(websafeConferenceKeys.size());
+        for (int i = 0; i < websafeConferenceKeys.size(); i++) {
+            items.add(new SimilarConference(websafeConferenceKeys.get(i), names.get(i),
+                    scores.get(i)));
+        }
+        return items;
+    }
+
+    /**
+     * Returns a defensive copy of computed if not null.
+     * @return a defensive copy of computed if not null.
+     */
+    public Date getComputed() {
+        return computed == null ? null : new Date(computed.getTime());
+    }
+}
@@ -0,0 +1,40 @@
+package com.google.devrel.training.conference.domain;
+
+import java.io.Serializable;
+
+/**
+ * One entry of the trending conferences list.
+ */
+public class TrendingConference implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String websafeConferenceKey;
+
+    private String name;
+
+    /**
+     * The decayed number of registrations: a registration one half-life ago counts half.
+     */
+    private double score;
+
+    public TrendingConference() {}
+
+    public TrendingConference(String websafeConferenceKey, String name, double score) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.name = name;
+        this.score = score;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
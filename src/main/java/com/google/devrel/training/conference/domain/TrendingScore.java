@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * The time-decayed registration count of a Conference, ranked by Trending.
+ *
+ * Instead of decaying every score as time passes, a registration at time t weighs
+ * e^(lambda * t), so newer registrations weigh more and an old score never needs rewriting.
+ * The weights outgrow a double within weeks, so the score is kept as the logarithm of the
+ * sum; logarithms order the same way, so the index on logScore ranks the conferences.
+ *
+ * The score is the root of its own entity group, so adding to it never contends with
+ * bookings.
+ */
+@Entity
+public class TrendingScore {
+
+    /**
+     * The websafe Conference key.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    @Index
+    private double logScore;
+
+    private Date updated;
+
+    /**
+     * When the last drain added to the score was taken, see Trending.apply.
+     */
+    private long lastDrainAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private TrendingScore() {}
+
+    public TrendingScore(final String websafeConferenceKey, final double logWeight,
+                         final long drainAt) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.logScore = logWeight;
+        this.lastDrainAt = drainAt;
+        this.updated = new Date();
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public double getLogScore() {
+        return logScore;
+    }
+
+    public long getLastDrainAt() {
+        return lastDrainAt;
+    }
+
+    /**
+     * Returns a defensive copy of updated if not null.
+     * @return a defensive copy of updated if not null.
+     */
+    public Date getUpdated() {
+        return updated == null ? null : new Date(updated.getTime());
+    }
+
+    /**
+     * Adds registrations to the score.
+     *
+     * @param logWeight the logarithm of their total weight.
+     * @param drainAt when the drain they come from was taken.
+     */
+    public void add(double logWeight, long drainAt) {
+        // log(e^a + e^b), computed without leaving log space.
+        double larger = Math.max(logScore, logWeight);
+        logScore = larger + Math.log1p(Math.exp(-Math.abs(logScore - logWeight)));
+        lastDrainAt = drainAt;
+        updated = new Date();
+    }
+}
@@ -0,0 +1,35 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple Java object (POJO) representing the conferences a getConferences or
+ * seatAvailability call asks for.
+ *
+ * The keys travel in the request body, since a few hundred websafe keys don't fit in a URL.
+ */
+public class ConferenceKeysForm {
+
+    /**
+     * The String representations of the Conference Keys.
+     */
+    private List<String> websafeConferenceKeys = new ArrayList<>();
+
+    public ConferenceKeysForm() {}
+
+    /**
+     * Constructor for ConferenceKeysForm, solely for unit test.
+     * @param websafeConferenceKeys The String representations of the Conference Keys.
+     */
+    public ConferenceKeysForm(List<String> websafeConferenceKeys) {
+        this.websafeConferenceKeys = new ArrayList<>(websafeConferenceKeys);
+    }
+
+    public List<String> getWebsafeConferenceKeys() {
+        return websafeConferenceKeys == null
+                ? ImmutableList.<String>of() : ImmutableList.copyOf(websafeConferenceKeys);
+    }
+}
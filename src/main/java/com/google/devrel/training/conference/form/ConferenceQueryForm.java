@@ -1,25 +1,17 @@
 package com.google.devrel.training.conference.form;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.collect.ImmutableList;
-import com.google.devrel.training.conference.domain.Conference;
-
-import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * A simple Java object (POJO) representing a query options for Conference.
  */
 public class ConferenceQueryForm {
 
-    private static final Logger LOG = Logger.getLogger(ConferenceQueryForm.class.getName());
-
     /**
      * Enum representing a field type.
      */
@@ -45,9 +37,13 @@ public class ConferenceQueryForm {
             this.fieldType = fieldType;
         }
 
-        private String getFieldName() {
+        public String getFieldName() {
             return this.fieldName;
         }
+
+        public FieldType getFieldType() {
+            return this.fieldType;
+        }
     }
 
     /**
@@ -67,7 +63,7 @@ public class ConferenceQueryForm {
             this.queryOperator = queryOperator;
         }
 
-        private String getQueryOperator() {
+        public String getQueryOperator() {
             return this.queryOperator;
         }
 
@@ -164,34 +160,14 @@ public class ConferenceQueryForm {
     }
 
     /**
-     * Returns an Objectify Query object for the specified filters.
+     * Returns the plan for the specified filters.
      *
-     * @return an Objectify Query.
+     * @return the QueryPlan chosen by QueryPlanner.
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    public Query<Conference> getQuery() {
+    public QueryPlan getPlan() {
         // First check the feasibility of inequality filters.
         checkFilters();
-        Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
-            // Order by name.
-            query = query.order("name");
-        } else {
-            // If we have any inequality filters, order by the field first.
-            query = query.order(inequalityFilter.field.getFieldName());
-            query = query.order("name");
-        }
-        for (Filter filter : this.filters) {
-            // Applies filters in order.
-            if (filter.field.fieldType == FieldType.STRING) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), filter.value);
-            } else if (filter.field.fieldType == FieldType.INTEGER) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
-            }
-        }
-        LOG.info(query.toString());
-        return query;
+        return QueryPlanner.plan(filters);
     }
 }
@@ -0,0 +1,126 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The plan QueryPlanner chose for a ConferenceQueryForm.
+ *
+ * Index filters and sort orders go to the datastore; post filters are applied in memory to
+ * the entities it returns.
+ */
+public class QueryPlan {
+
+    /**
+     * The composite index used, as a list of property names; "name" alone for the built-in one.
+     */
+    private List<String> index;
+
+    /**
+     * Filters run by the datastore, in the order they are applied.
+     */
+    private List<Filter> indexFilters;
+
+    /**
+     * Filters run in memory on the entities the datastore returns.
+     */
+    private List<Filter> postFilters;
+
+    /**
+     * Sort orders of the datastore query.
+     */
+    private List<String> orderBy;
+
+    /**
+     * Estimated fraction of all Conference entities the datastore has to return.
+     */
+    private double estimatedScanFraction;
+
+    /**
+     * Estimated fraction of all Conference entities in the final result.
+     */
+    private double estimatedResultFraction;
+
+    public QueryPlan() {}
+
+    QueryPlan(List<String> index, List<Filter> indexFilters, List<Filter> postFilters,
+              List<String> orderBy, double estimatedScanFraction,
+              double estimatedResultFraction) {
+        this.index = ImmutableList.copyOf(index);
+        this.indexFilters = ImmutableList.copyOf(indexFilters);
+        this.postFilters = ImmutableList.copyOf(postFilters);
+        this.orderBy = ImmutableList.copyOf(orderBy);
+        this.estimatedScanFraction = estimatedScanFraction;
+        this.estimatedResultFraction = estimatedResultFraction;
+    }
+
+    public List<String> getIndex() {
+        return index;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<Filter> getIndexFilters() {
+        return indexFilters;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<Filter> getPostFilters() {
+        return postFilters;
+    }
+
+    /**
+     * Returns the index filters in "field operator value" form, for explainQuery.
+     */
+    public List<String> getIndexFilterDescriptions() {
+        return describe(indexFilters);
+    }
+
+    /**
+     * Returns the post filters in "field operator value" form, for explainQuery.
+     */
+    public List<String> getPostFilterDescriptions() {
+        return describe(postFilters);
+    }
+
+    public List<String> getOrderBy() {
+        return orderBy;
+    }
+
+    public double getEstimatedScanFraction() {
+        return estimatedScanFraction;
+    }
+
+    public double getEstimatedResultFraction() {
+        return estimatedResultFraction;
+    }
+
+    /**
+     * Checks a Conference returned by the datastore against the post filters.
+     *
+     * @param conference the Conference.
+     * @return true when it passes every post filter.
+     */
+    public boolean matches(Conference conference) {
+        for (Filter filter : postFilters) {
+            if (!QueryPlanner.matches(filter, conference)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> describe(List<Filter> filters) {
+        List<String> descriptions = new ArrayList<>(filters.size());
+        for (Filter filter : filters) {
+            descriptions.add(String.format("%s %s %s", filter.getField().getFieldName(),
+                    filter.getOperator().getQueryOperator(), filter.getValue()));
+        }
+        return descriptions;
+    }
+}
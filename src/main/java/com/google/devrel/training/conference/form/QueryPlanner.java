@@ -0,0 +1,262 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.FieldType;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses how to run the filters of a ConferenceQueryForm.
+ *
+ * Filters are de-duplicated and ordered by estimated selectivity. The planner then picks the
+ * set of fields to filter in the datastore that has a composite index and scans the fewest
+ * entities; every other filter becomes an in-memory post filter. "!=" always runs in memory,
+ * since the datastore would split it into two queries.
+ */
+public class QueryPlanner {
+
+    /**
+     * The non-ancestor Conference indexes declared in WEB-INF/datastore-indexes.xml, in the
+     * same order. Each lists equality properties first, then the inequality property if any,
+     * then name, which every query is sorted by.
+     */
+    private static final List<List<String>> INDEXES = ImmutableList.<List<String>>of(
+            ImmutableList.of("city", "name"),
+            ImmutableList.of("topics", "name"),
+            ImmutableList.of("month", "name"),
+            ImmutableList.of("maxAttendees", "name"),
+            ImmutableList.of("city", "topics", "name"),
+            ImmutableList.of("city", "month", "name"),
+            ImmutableList.of("topics", "month", "name"),
+            ImmutableList.of("city", "maxAttendees", "name"),
+            ImmutableList.of("topics", "maxAttendees", "name"),
+            ImmutableList.of("month", "maxAttendees", "name"));
+
+    /**
+     * The built-in single property index used when nothing is filtered in the datastore.
+     */
+    private static final List<String> NAME_INDEX = ImmutableList.of("name");
+
+    /**
+     * Returns the estimated fraction of conferences that pass a filter.
+     *
+     * There are no statistics to go by, so these are rough per field guesses.
+     */
+    static double selectivity(Filter filter) {
+        switch (filter.getOperator()) {
+            case EQ:
+                switch (filter.getField()) {
+                    case CITY:
+                        return 0.05;
+                    case TOPIC:
+                        return 0.1;
+                    case MONTH:
+                        return 1.0 / 12;
+                    default:
+                        return 0.02;
+                }
+            case NE:
+                return 0.95;
+            default:
+                return 0.33;
+        }
+    }
+
+    /**
+     * Plans the given filters.
+     *
+     * @param filters the filters of a ConferenceQueryForm.
+     * @return the chosen plan.
+     */
+    public static QueryPlan plan(List<Filter> filters) {
+        // Normalize: drop duplicates, most selective first.
+        List<Filter> normalized = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Filter filter : filters) {
+            String id = filter.getField() + " " + filter.getOperator() + " " + filter.getValue();
+            if (seen.add(id)) {
+                normalized.add(filter);
+            }
+        }
+        Collections.sort(normalized, new Comparator<Filter>() {
+            @Override
+            public int compare(Filter a, Filter b) {
+                return Double.compare(selectivity(a), selectivity(b));
+            }
+        });
+
+        // Group the filters the datastore could run by field.
+        Map<Field, List<Filter>> indexable = new EnumMap<>(Field.class);
+        Set<Field> rangeFields = new HashSet<>();
+        for (Filter filter : normalized) {
+            if (filter.getOperator() != Operator.NE && filter.getOperator() != Operator.EQ) {
+                rangeFields.add(filter.getField());
+            }
+        }
+        for (Filter filter : normalized) {
+            if (filter.getOperator() == Operator.NE) {
+                continue;
+            }
+            // Equality on a field that also has a range filter is checked in memory.
+            if (filter.getOperator() == Operator.EQ && rangeFields.contains(filter.getField())) {
+                continue;
+            }
+            List<Filter> fieldFilters = indexable.get(filter.getField());
+            if (fieldFilters == null) {
+                fieldFilters = new ArrayList<>();
+                indexable.put(filter.getField(), fieldFilters);
+            }
+            fieldFilters.add(filter);
+        }
+
+        // Try every subset of the indexable fields and keep the cheapest one with an index.
+        List<Field> fields = new ArrayList<>(indexable.keySet());
+        List<Field> bestFields = Collections.emptyList();
+        List<String> bestIndex = NAME_INDEX;
+        double bestScan = 1.0;
+        for (int mask = 1; mask < (1 << fields.size()); mask++) {
+            List<Field> subset = new ArrayList<>();
+            Field rangeField = null;
+            int rangeCount = 0;
+            double scan = 1.0;
+            for (int i = 0; i < fields.size(); i++) {
+                if ((mask & (1 << i)) != 0) {
+                    Field field = fields.get(i);
+                    subset.add(field);
+                    if (rangeFields.contains(field)) {
+                        rangeField = field;
+                        rangeCount++;
+                    }
+                    for (Filter filter : indexable.get(field)) {
+                        scan *= selectivity(filter);
+                    }
+                }
+            }
+            if (rangeCount > 1 || scan >= bestScan) {
+                continue;
+            }
+            List<String> index = findIndex(subset, rangeField);
+            if (index != null) {
+                bestFields = subset;
+                bestIndex = index;
+                bestScan = scan;
+            }
+        }
+
+        List<Filter> indexFilters = new ArrayList<>();
+        List<Filter> postFilters = new ArrayList<>();
+        double result = 1.0;
+        for (Filter filter : normalized) {
+            result *= selectivity(filter);
+            if (bestFields.contains(filter.getField())
+                    && indexable.get(filter.getField()).contains(filter)) {
+                indexFilters.add(filter);
+            } else {
+                postFilters.add(filter);
+            }
+        }
+        // The datastore wants the inequality property sorted first.
+        List<String> orderBy = new ArrayList<>();
+        for (Field field : bestFields) {
+            if (rangeFields.contains(field)) {
+                orderBy.add(field.getFieldName());
+            }
+        }
+        orderBy.add("name");
+        return new QueryPlan(bestIndex, indexFilters, postFilters, orderBy, bestScan, result);
+    }
+
+    /**
+     * Returns the index serving equality filters on the given fields plus the range field.
+     */
+    private static List<String> findIndex(List<Field> fields, Field rangeField) {
+        Set<String> equalityProperties = new HashSet<>();
+        for (Field field : fields) {
+            if (field != rangeField) {
+                equalityProperties.add(field.getFieldName());
+            }
+        }
+        int size = equalityProperties.size() + (rangeField == null ? 0 : 1) + 1;
+        for (List<String> index : INDEXES) {
+            if (index.size() != size) {
+                continue;
+            }
+            int equalityEnd = rangeField == null ? size - 1 : size - 2;
+            if (!new HashSet<>(index.subList(0, equalityEnd)).equals(equalityProperties)) {
+                continue;
+            }
+            if (rangeField != null && !index.get(size - 2).equals(rangeField.getFieldName())) {
+                continue;
+            }
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * Checks a Conference against a single filter the way the datastore would.
+     * A list property passes when any of its values passes.
+     *
+     * @param filter the filter.
+     * @param conference the Conference.
+     * @return true when the Conference passes.
+     */
+    public static boolean matches(Filter filter, Conference conference) {
+        switch (filter.getField()) {
+            case CITY:
+                return matches(filter, conference.getCity());
+            case TOPIC:
+                if (conference.getTopics() != null) {
+                    for (String topic : conference.getTopics()) {
+                        if (matches(filter, topic)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case MONTH:
+                return matches(filter, conference.getMonth());
+            case MAX_ATTENDEES:
+                return matches(filter, conference.getMaxAttendees());
+            default:
+                return false;
+        }
+    }
+
+    private static boolean matches(Filter filter, Object value) {
+        if (value == null) {
+            return false;
+        }
+        int comparison;
+        if (filter.getField().getFieldType() == FieldType.INTEGER) {
+            comparison = Integer.compare((Integer) value, Integer.parseInt(filter.getValue()));
+        } else {
+            comparison = value.toString().compareTo(filter.getValue());
+        }
+        switch (filter.getOperator()) {
+            case EQ:
+                return comparison == 0;
+            case LT:
+                return comparison < 0;
+            case GT:
+                return comparison > 0;
+            case LTEQ:
+                return comparison <= 0;
+            case GTEQ:
+                return comparison >= 0;
+            default:
+                return comparison != 0;
+        }
+    }
+}
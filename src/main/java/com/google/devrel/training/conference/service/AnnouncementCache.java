@@ -0,0 +1,191 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reads and publishes announcements.
+ *
+ * An announcement belongs to a scope: the global scope, a city or a topic. Each scope is
+ * written to several replicated memcache keys, and a reader picks one at random, so a popular
+ * scope doesn't turn into a single hot key. In front of memcache sits a short-lived in-JVM
+ * near-cache, so most reads never leave the instance. Scopes come from client supplied city
+ * and topic values, so the near-cache is bounded and drops the least recently read scope.
+ */
+public class AnnouncementCache {
+
+    /**
+     * The number of memcache copies of each announcement.
+     */
+    private static final int REPLICAS = Integer.getInteger("conference.announcement.replicas", 8);
+
+    /**
+     * How long an announcement (or its absence) is kept in the near-cache.
+     */
+    private static final long NEAR_CACHE_TTL_MILLIS =
+            Long.getLong("conference.announcement.nearCacheTtlMillis", 30000L);
+
+    /**
+     * The most scopes kept in the near-cache.
+     */
+    private static final int NEAR_CACHE_SIZE =
+            Integer.getInteger("conference.announcement.nearCacheSize", 1000);
+
+    private static final String GLOBAL_SCOPE = "";
+
+    private static final String SCOPES_KEY = Constants.MEMCACHE_ANNOUNCEMENTS_KEY + ":SCOPES";
+
+    private static final Random RANDOM = new Random();
+
+    @SuppressWarnings("serial")
+    private static final Map<String, NearCacheEntry> NEAR_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, NearCacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, NearCacheEntry> eldest) {
+                    return size() > NEAR_CACHE_SIZE;
+                }
+            });
+
+    private static class NearCacheEntry {
+        private final String message;
+        private final long expiresAt;
+
+        private NearCacheEntry(String message, long expiresAt) {
+            this.message = message;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Returns the global announcement scope.
+     */
+    public static String globalScope() {
+        return GLOBAL_SCOPE;
+    }
+
+    /**
+     * Returns the announcement scope of a city.
+     */
+    public static String cityScope(String city) {
+        return "city:" + normalize(city);
+    }
+
+    /**
+     * Returns the announcement scope of a topic.
+     */
+    public static String topicScope(String topic) {
+        return "topic:" + normalize(topic);
+    }
+
+    /**
+     * Returns the scope to read for the given request parameters.
+     * The city wins over the topic, and with neither the global scope is used.
+     *
+     * @param city the city, may be null.
+     * @param topic the topic, may be null.
+     * @return the announcement scope.
+     */
+    public static String scopeOf(String city, String topic) {
+        if (city != null && !city.trim().isEmpty()) {
+            return cityScope(city);
+        } else if (topic != null && !topic.trim().isEmpty()) {
+            return topicScope(topic);
+        }
+        return GLOBAL_SCOPE;
+    }
+
+    /**
+     * Returns the announcement of a scope.
+     *
+     * @param scope the announcement scope.
+     * @return the announcement message, or null when there is none.
+     */
+    public static String get(String scope) {
+        long now = System.currentTimeMillis();
+        NearCacheEntry entry = NEAR_CACHE.get(scope);
+        if (entry != null && entry.expiresAt > now) {
+            Metrics.increment("announcement.nearCache.hit");
+            return entry.message;
+        }
+        Metrics.increment("announcement.nearCache.miss");
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object message = memcacheService.get(replicaKey(scope, RANDOM.nextInt(REPLICAS)));
+        if (message == null) {
+            // The replica may have been evicted while others survive; check them all before
+            // caching the absence.
+            Metrics.increment("announcement.replica.miss");
+            for (Object replica : memcacheService.getAll(replicaKeys(scope)).values()) {
+                if (replica != null) {
+                    message = replica;
+                    break;
+                }
+            }
+        }
+        String result = message == null ? null : message.toString();
+        NEAR_CACHE.put(scope, new NearCacheEntry(result, now + NEAR_CACHE_TTL_MILLIS));
+        return result;
+    }
+
+    /**
+     * Replaces all announcements with the given ones.
+     * Scopes published last time but missing now are removed from memcache.
+     *
+     * @param announcements scope to message.
+     */
+    @SuppressWarnings("unchecked")
+    public static void publish(Map<String, String> announcements) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+        Object previous = memcacheService.get(SCOPES_KEY);
+        if (previous instanceof Collection) {
+            List<String> staleKeys = new ArrayList<>();
+            for (String scope : (Collection<String>) previous) {
+                if (!announcements.containsKey(scope)) {
+                    staleKeys.addAll(replicaKeys(scope));
+                }
+            }
+            memcacheService.deleteAll(staleKeys);
+        }
+
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : announcements.entrySet()) {
+            for (String key : replicaKeys(entry.getKey())) {
+                values.put(key, entry.getValue());
+            }
+        }
+        memcacheService.putAll(values);
+        memcacheService.put(SCOPES_KEY, new HashSet<>(announcements.keySet()));
+
+        // This instance sees its own update right away; others within the near-cache TTL.
+        NEAR_CACHE.clear();
+        ChangeFeed.publishAnnouncement();
+    }
+
+    private static List<String> replicaKeys(String scope) {
+        List<String> keys = new ArrayList<>(REPLICAS);
+        for (int replica = 0; replica < REPLICAS; replica++) {
+            keys.add(replicaKey(scope, replica));
+        }
+        return keys;
+    }
+
+    private static String replicaKey(String scope, int replica) {
+        return Constants.MEMCACHE_ANNOUNCEMENTS_KEY + ":" + scope + "#" + replica;
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ENGLISH);
+    }
+}
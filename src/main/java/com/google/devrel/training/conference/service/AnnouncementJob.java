@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.JobShard;
+import com.google.devrel.training.conference.domain.JobState;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Publishes the announcements of nearly sold-out conferences (1 - 5 seats left).
+ *
+ * The shards scan the seat inventories and emit one "scope TAB name" line per announcement
+ * scope of each nearly sold-out Conference: the global scope, its city and its topics. The
+ * finish step joins the names per scope and publishes them with AnnouncementCache.
+ */
+public class AnnouncementJob extends ShardedJob<ConferenceInventory> {
+
+    public static final String NAME = "announcements";
+
+    public AnnouncementJob() {
+        super(NAME, ConferenceInventory.class);
+    }
+
+    @Override
+    public void processBatch(List<ConferenceInventory> batch, JobShard shard) {
+        List<Key<Conference>> nearlySoldOut = new ArrayList<>();
+        for (ConferenceInventory inventory : batch) {
+            if (inventory.getSeatsAvailable() > 0 && inventory.getSeatsAvailable() < 5) {
+                nearlySoldOut.add(inventory.getConferenceKey());
+            }
+        }
+        if (nearlySoldOut.isEmpty()) {
+            return;
+        }
+        for (Conference conference : repository().loadAll(nearlySoldOut).values()) {
+            emit(shard, AnnouncementCache.globalScope(), conference);
+            if (conference.getCity() != null) {
+                emit(shard, AnnouncementCache.cityScope(conference.getCity()), conference);
+            }
+            if (conference.getTopics() != null) {
+                for (String topic : conference.getTopics()) {
+                    emit(shard, AnnouncementCache.topicScope(topic), conference);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void finish(JobState job, List<JobShard> shards) {
+        // Group the names of the nearly sold-out conferences by announcement scope
+        Map<String, List<String>> conferenceNamesByScope = new HashMap<>();
+        for (JobShard shard : shards) {
+            for (String line : JobService.getOutput(shard)) {
+                String[] scopeAndName = line.split("\t", 2);
+                List<String> names = conferenceNamesByScope.get(scopeAndName[0]);
+                if (names == null) {
+                    names = new ArrayList<>();
+                    conferenceNamesByScope.put(scopeAndName[0], names);
+                }
+                names.add(scopeAndName[1]);
+            }
+        }
+
+        // Build a String per scope that announces the nearly sold-out conferences
+        Map<String, String> announcements = new HashMap<>();
+        Joiner joiner = Joiner.on(", ").skipNulls();
+        for (Map.Entry<String, List<String>> entry : conferenceNamesByScope.entrySet()) {
+            announcements.put(entry.getKey(),
+                    "Last chance to attend! The following conferences are nearly sold out: "
+                            + joiner.join(entry.getValue()));
+        }
+
+        // Put the announcements in memcache, replacing the previous ones
+        AnnouncementCache.publish(announcements);
+    }
+
+    private static void emit(JobShard shard, String scope, Conference conference) {
+        shard.emit(scope + "\t" + conference.getName());
+    }
+}
@@ -0,0 +1,133 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.JobShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Moves conferences that ended more than ARCHIVE_AFTER_DAYS ago into the ArchivedConference
+ * kind, so the Conference kind and its indexes only hold current events.
+ *
+ * The daily cron calls archiveEnded(), which looks the conferences up with a query on
+ * endDate, so it costs the same however many current conferences there are.
+ *
+ * Conferences saved before endDate was indexed are invisible to that query. Running this as
+ * a ShardedJob, once, from the jobs admin page, scans the whole kind: it archives the ended
+ * conferences, judging one without an endDate by its startDate, and saves the others again
+ * so their endDate gets indexed.
+ *
+ * Each Conference moves in its own transaction: the ArchivedConference is saved and the
+ * Conference and its ConferenceInventory are deleted together. A Conference already moved is
+ * skipped, so a batch can safely run again.
+ */
+public class ArchivalJob extends ShardedJob<Conference> {
+
+    public static final String NAME = "archival";
+
+    /**
+     * How long after its end a Conference is archived.
+     */
+    private static final int ARCHIVE_AFTER_DAYS =
+            Integer.getInteger("conference.archive.afterDays", 30);
+
+    /**
+     * The most conferences archived by one cron run.
+     */
+    private static final int ARCHIVE_BATCH = 500;
+
+    private static final TransactionRunner TRANSACTION_RUNNER = new TransactionRunner();
+
+    public ArchivalJob() {
+        super(NAME, Conference.class);
+    }
+
+    /**
+     * Archives the conferences that ended before the cutoff, at most ARCHIVE_BATCH of them;
+     * the rest wait for the next run.
+     *
+     * @return the number of conferences archived.
+     */
+    public static int archiveEnded() {
+        int archived = 0;
+        for (Key<Conference> conferenceKey
+                : repository().getConferenceKeysEndedBefore(cutoff(), ARCHIVE_BATCH)) {
+            if (archive(conferenceKey)) {
+                archived++;
+            }
+        }
+        return archived;
+    }
+
+    @Override
+    public void processBatch(List<Conference> batch, JobShard shard) {
+        Date cutoff = cutoff();
+        for (Conference conference : batch) {
+            Date end = conference.getEndDate() != null
+                    ? conference.getEndDate() : conference.getStartDate();
+            if (end != null && end.before(cutoff)) {
+                archive(conference.getKey());
+            } else if (conference.getEndDate() != null) {
+                reindex(conference.getKey());
+            }
+        }
+    }
+
+    private static Date cutoff() {
+        return new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ARCHIVE_AFTER_DAYS));
+    }
+
+    /**
+     * Saves a Conference again, so its endDate is indexed. Its inventory is saved with it:
+     * the legacy seat fields a Conference without one falls back to are never saved, so
+     * after this save they would be gone.
+     *
+     * @param conferenceKey the Conference key.
+     */
+    private static void reindex(final Key<Conference> conferenceKey) {
+        TRANSACTION_RUNNER.run(new Work<Void>() {
+            @Override
+            public Void run() {
+                Conference conference = repository().load(conferenceKey);
+                if (conference != null) {
+                    repository().save(conference, conference.getInventory());
+                }
+                return null;
+            }
+        }, "archival.reindex");
+    }
+
+    /**
+     * Moves one Conference to the archive.
+     *
+     * @param conferenceKey the Conference key.
+     * @return false when the Conference was already moved.
+     */
+    private static boolean archive(final Key<Conference> conferenceKey) {
+        final Key<ConferenceInventory> inventoryKey = ConferenceInventory.keyOf(conferenceKey);
+        boolean moved = TRANSACTION_RUNNER.run(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                Conference conference = repository().load(conferenceKey);
+                if (conference == null) {
+                    return false;
+                }
+                repository().save(conference.archive());
+                repository().delete(conferenceKey, inventoryKey);
+                return true;
+            }
+        }, "archival.archive");
+        if (moved) {
+            SeatInventory.invalidate(conferenceKey.getString());
+            Metrics.increment("archive.conferences");
+        }
+        return moved;
+    }
+}
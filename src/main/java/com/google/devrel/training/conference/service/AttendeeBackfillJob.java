@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.JobShard;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Gives every registration made before rosters existed its Attendee.
+ *
+ * Registrations used to be recorded only in Profile.conferenceKeysToAttend, so they are
+ * missing from getAttendees until this one-off job, started from the jobs admin page, has
+ * run. The Attendees of a batch of Profiles are looked up with one batched get. Each missing
+ * one is saved by SeatHolds.saveAttendee(), which checks again in a transaction that the user
+ * is still registered and that no registration saved it in the meantime, so a batch can
+ * safely run again. A backfilled Attendee is dated when the job ran.
+ */
+public class AttendeeBackfillJob extends ShardedJob<Profile> {
+
+    public static final String NAME = "attendeeBackfill";
+
+    public AttendeeBackfillJob() {
+        super(NAME, Profile.class);
+    }
+
+    @Override
+    public void processBatch(List<Profile> batch, JobShard shard) {
+        List<Key<Attendee>> attendeeKeys = new ArrayList<>();
+        for (Profile profile : batch) {
+            for (String websafeConferenceKey : profile.getConferenceKeysToAttend()) {
+                Key<Conference> conferenceKey;
+                try {
+                    conferenceKey = Key.create(websafeConferenceKey);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                attendeeKeys.add(Attendee.keyOf(conferenceKey, profile.getUserId()));
+            }
+        }
+        Map<Key<Attendee>, Attendee> attendees = repository().loadAll(attendeeKeys);
+        for (Key<Attendee> attendeeKey : attendeeKeys) {
+            if (!attendees.containsKey(attendeeKey)) {
+                SeatHolds.saveAttendee(attendeeKey.<Conference>getParent(), attendeeKey.getName());
+                Metrics.increment("jobs." + NAME + ".created");
+            }
+        }
+    }
+}
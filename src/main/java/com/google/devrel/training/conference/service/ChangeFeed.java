@@ -0,0 +1,135 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Wakes up long-poll requests waiting for seat or announcement changes.
+ *
+ * Each conference has its own set of subscribers, so a booking only wakes the requests that
+ * watch that conference. The feed is local to the instance: changes made on other instances
+ * are found by the periodic re-check of the waiting request.
+ */
+public class ChangeFeed {
+
+    /**
+     * The channel name used for announcements.
+     */
+    private static final String ANNOUNCEMENTS = "";
+
+    private static final ConcurrentMap<String, Set<Subscriber>> CHANNELS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A waiting request.
+     */
+    public static class Subscriber {
+
+        private boolean signalled;
+
+        private synchronized void signal() {
+            signalled = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until a watched channel changes or the timeout passes.
+         *
+         * @param timeoutMillis the longest time to wait.
+         * @return true when woken up by a change.
+         * @throws InterruptedException when the request thread is interrupted.
+         */
+        public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (!signalled && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            boolean result = signalled;
+            signalled = false;
+            return result;
+        }
+    }
+
+    /**
+     * Subscribes to seat changes of the given conferences and to announcements.
+     *
+     * @param websafeConferenceKeys the conferences to watch.
+     * @return the subscriber, which must be passed to unsubscribe when done.
+     */
+    public static Subscriber subscribe(Collection<String> websafeConferenceKeys) {
+        Subscriber subscriber = new Subscriber();
+        channel(ANNOUNCEMENTS).add(subscriber);
+        for (String websafeKey : websafeConferenceKeys) {
+            channel(websafeKey).add(subscriber);
+        }
+        Metrics.increment("changeFeed.subscribe");
+        return subscriber;
+    }
+
+    /**
+     * Removes a subscriber from all channels it watches.
+     *
+     * @param subscriber the subscriber.
+     * @param websafeConferenceKeys the conferences it watches.
+     */
+    public static void unsubscribe(Subscriber subscriber,
+                                   Collection<String> websafeConferenceKeys) {
+        remove(ANNOUNCEMENTS, subscriber);
+        for (String websafeKey : websafeConferenceKeys) {
+            remove(websafeKey, subscriber);
+        }
+    }
+
+    /**
+     * Wakes the subscribers of a conference after its seats changed.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void publishSeats(String websafeConferenceKey) {
+        publish(websafeConferenceKey);
+    }
+
+    /**
+     * Wakes all subscribers after the announcements changed.
+     */
+    public static void publishAnnouncement() {
+        publish(ANNOUNCEMENTS);
+    }
+
+    private static void publish(String channelName) {
+        Set<Subscriber> subscribers = CHANNELS.get(channelName);
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.signal();
+        }
+        Metrics.add("changeFeed.signal", subscribers.size());
+    }
+
+    private static Set<Subscriber> channel(String channelName) {
+        Set<Subscriber> subscribers = CHANNELS.get(channelName);
+        if (subscribers == null) {
+            Set<Subscriber> created =
+                    Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+            subscribers = CHANNELS.putIfAbsent(channelName, created);
+            if (subscribers == null) {
+                subscribers = created;
+            }
+        }
+        return subscribers;
+    }
+
+    private static void remove(String channelName, Subscriber subscriber) {
+        Set<Subscriber> subscribers = CHANNELS.get(channelName);
+        if (subscribers != null) {
+            subscribers.remove(subscriber);
+            // Empty channels are left in place; dropping them could race with a new subscriber.
+        }
+    }
+}
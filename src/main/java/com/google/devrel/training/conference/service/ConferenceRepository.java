@@ -0,0 +1,258 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.JobState;
+import com.google.devrel.training.conference.domain.PendingNotification;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.TrendingScore;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of Conference, Profile and the other entities of this application.
+ *
+ * The API and servlets go through this interface instead of calling Objectify directly, so
+ * the same code can run against the datastore (ObjectifyConferenceRepository) or entirely in
+ * memory (InMemoryConferenceRepository). Use RepositoryService.repository() to get the
+ * configured engine.
+ */
+public interface ConferenceRepository {
+
+    /**
+     * Loads one entity.
+     *
+     * @param key the key of the entity.
+     * @return the entity, or null when it doesn't exist.
+     */
+    <E> E load(Key<E> key);
+
+    /**
+     * Starts loading one entity without waiting for it. Loads started before any of them is
+     * waited for run in parallel.
+     *
+     * @param key the key of the entity.
+     * @return the pending load; its now() returns the entity, or null when it doesn't exist.
+     */
+    <E> Result<E> loadAsync(Key<E> key);
+
+    /**
+     * Loads entities of one kind in a single batch.
+     *
+     * @param keys the keys of the entities.
+     * @return key to entity for the entities that exist.
+     */
+    <E> Map<Key<E>, E> loadAll(Collection<Key<E>> keys);
+
+    /**
+     * Loads entities of different kinds in a single batch.
+     *
+     * @param keys the keys of the entities.
+     * @return key to entity for the entities that exist.
+     */
+    Map<Key<?>, Object> loadAll(Key<?>... keys);
+
+    /**
+     * Saves entities and waits until they are written.
+     *
+     * @param entities the entities to save.
+     */
+    void save(Object... entities);
+
+    /**
+     * Deletes entities and waits until they are gone.
+     *
+     * @param keys the keys of the entities to delete.
+     */
+    void delete(Key<?>... keys);
+
+    /**
+     * Returns a view of this repository whose gets and ancestor queries are eventually
+     * consistent; writes and transactions are unaffected. Engines whose reads are always
+     * consistent return themselves.
+     *
+     * @return the eventually consistent ConferenceRepository.
+     */
+    ConferenceRepository eventuallyConsistent();
+
+    /**
+     * Allocates the key of a new Conference.
+     *
+     * @param organizerKey the Profile key of the organizer, which becomes the parent.
+     * @return a key no other Conference has.
+     */
+    Key<Conference> allocateConferenceKey(Key<Profile> organizerKey);
+
+    /**
+     * Returns conferences passing all filters, sorted by the given properties.
+     * Filters and sort orders follow the datastore's rules for a single query.
+     *
+     * @param filters the filters, as in ConferenceQueryForm.
+     * @param orderBy the properties to sort by, in order.
+     * @return the matching conferences.
+     */
+    List<Conference> queryConferences(List<Filter> filters, List<String> orderBy);
+
+    /**
+     * Returns a page of the keys of all conferences, in key order.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page.
+     * @param limit the most keys to return.
+     * @return the page.
+     */
+    Page<Key<Conference>> getConferenceKeys(String cursor, int limit);
+
+    /**
+     * Returns the keys of conferences on a topic.
+     *
+     * @param topic the topic.
+     * @param limit the most keys to return.
+     * @return the keys, in no particular order.
+     */
+    List<Key<Conference>> getConferenceKeysByTopic(String topic, int limit);
+
+    /**
+     * Returns the conferences of an organizer, sorted by name.
+     *
+     * @param organizerKey the Profile key of the organizer.
+     * @return the conferences.
+     */
+    List<Conference> getConferencesByOrganizer(Key<Profile> organizerKey);
+
+    /**
+     * Returns conferences whose seatsAvailable is strictly between the bounds, with the
+     * fewest seats first. The query runs on ConferenceInventory and the returned conferences
+     * have their inventory attached.
+     *
+     * @param city only conferences in this city, or null for all cities.
+     * @param moreThan the lower bound, exclusive.
+     * @param lessThan the upper bound, exclusive.
+     * @param limit the most conferences to return.
+     * @return the conferences.
+     */
+    List<Conference> getConferencesBySeatsAvailable(String city, int moreThan, int lessThan,
+                                                    int limit);
+
+    /**
+     * Returns archived conferences, the most recently ended first.
+     *
+     * @param limit the most conferences to return.
+     * @return the ArchivedConferences.
+     */
+    List<ArchivedConference> getArchivedConferences(int limit);
+
+    /**
+     * Returns the keys of conferences whose endDate is before the given time, the earliest
+     * ended first.
+     *
+     * @param before the time.
+     * @param limit the most keys to return.
+     * @return the Conference keys.
+     */
+    List<Key<Conference>> getConferenceKeysEndedBefore(Date before, int limit);
+
+    /**
+     * Returns seat hold slots whose expires time is before the given time: expired holds,
+     * confirmed slots waiting to be refilled and idle free slots, the oldest first.
+     *
+     * @param before the time.
+     * @param limit the most slots to return.
+     * @return the SeatHoldSlots.
+     */
+    List<SeatHoldSlot> getSeatHoldSlotsExpiredBefore(Date before, int limit);
+
+    /**
+     * Returns the keys of notifications created before the given time, the oldest first.
+     *
+     * @param before the time.
+     * @param limit the most keys to return.
+     * @return the PendingNotification keys.
+     */
+    List<Key<PendingNotification>> getPendingNotificationKeys(Date before, int limit);
+
+    /**
+     * Returns the notifications waiting for a user, in time order.
+     *
+     * @param profileKey the recipient's Profile key.
+     * @return the PendingNotifications.
+     */
+    List<PendingNotification> getPendingNotifications(Key<Profile> profileKey);
+
+    /**
+     * Returns the highest trending scores, the highest first.
+     *
+     * @param limit the most scores to return.
+     * @return the TrendingScores.
+     */
+    List<TrendingScore> getTopTrendingScores(int limit);
+
+    /**
+     * Returns a page of the attendees of a Conference, in userId order.
+     *
+     * @param conferenceKey the Conference key.
+     * @param cursor the cursor returned with the previous page, or null for the first page.
+     * @param limit the most attendees to return.
+     * @return the page.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    Page<Attendee> getAttendees(Key<Conference> conferenceKey, String cursor, int limit);
+
+    /**
+     * Returns keys of a kind from the datastore's __scatter__ sample, which are spread
+     * evenly over the key space and so make good split points.
+     *
+     * @param kind the entity class.
+     * @param limit the most keys to return.
+     * @return the keys, in no particular order; empty for a small kind.
+     */
+    <E> List<Key<E>> getScatterKeys(Class<E> kind, int limit);
+
+    /**
+     * Returns a page of the entities of a kind within a key range, in key order.
+     *
+     * @param kind the entity class.
+     * @param start the first key of the range, inclusive, or null from the beginning.
+     * @param end the last key of the range, exclusive, or null to the end.
+     * @param cursor the cursor returned with the previous page, or null for the first page.
+     * @param limit the most entities to return.
+     * @return the page.
+     */
+    <E> Page<E> scanRange(Class<E> kind, Key<?> start, Key<?> end, String cursor, int limit);
+
+    /**
+     * Returns the most recently started job runs, newest first.
+     *
+     * @param limit the most runs to return.
+     * @return the JobStates.
+     */
+    List<JobState> getRecentJobs(int limit);
+
+    /**
+     * Runs the work in a transaction, once. Retrying is left to TransactionRunner.
+     *
+     * @param work the transactional work.
+     * @return the result of the work.
+     * @throws java.util.ConcurrentModificationException when the transaction fails on
+     *         contention.
+     */
+    <R> R transact(Work<R> work);
+
+    /**
+     * Adds a task to a queue, as part of the current transaction if there is one.
+     *
+     * @param queue the queue.
+     * @param task the task.
+     */
+    void addTask(Queue queue, TaskOptions task);
+}
@@ -0,0 +1,135 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.condition.Always;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * An in-memory cache of entities for reads with CACHE_ONLY_WITH_FALLBACK consistency.
+ *
+ * Entries are kept as low-level datastore Entities and translated on every hit, so callers
+ * get their own objects to modify, like from the datastore. Fields that are loaded but never
+ * saved, such as the legacy seat fields of Conference, are copied into the Entity too, since
+ * translating the object for saving leaves them out. Entries live for
+ * conference.readCache.ttlMillis; writes through an EntitySession of this instance evict
+ * them at once, writes on other instances show up when they expire.
+ */
+public class EntityCache {
+
+    private static final long TTL_MILLIS = Long.getLong("conference.readCache.ttlMillis", 10000L);
+
+    /**
+     * The most entries kept; when full, entries are only added once expired ones are purged.
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    private static final ConcurrentMap<com.google.appengine.api.datastore.Key, CacheEntry>
+            ENTRIES = new ConcurrentHashMap<>();
+
+    /**
+     * The fields marked with an unconditional @IgnoreSave, by entity class.
+     */
+    private static final ConcurrentMap<Class<?>, List<Field>> LOAD_ONLY_FIELDS =
+            new ConcurrentHashMap<>();
+
+    private static class CacheEntry {
+        private final Entity entity;
+        private final long expiresAt;
+
+        private CacheEntry(Entity entity, long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Returns the cached entity of a key.
+     *
+     * @param key the key.
+     * @return a fresh copy of the entity, or null when it isn't cached or has expired.
+     */
+    public static <E> E get(Key<E> key) {
+        CacheEntry entry = ENTRIES.get(key.getRaw());
+        if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+            Metrics.increment("readCache.misses");
+            return null;
+        }
+        Metrics.increment("readCache.hits");
+        return ofy().load().<E>fromEntity(entry.entity);
+    }
+
+    /**
+     * Caches an entity as loaded from the datastore.
+     *
+     * @param entity the entity, an instance of a registered kind.
+     */
+    public static void put(Object entity) {
+        long now = System.currentTimeMillis();
+        if (ENTRIES.size() >= MAX_ENTRIES) {
+            purgeExpired(now);
+            if (ENTRIES.size() >= MAX_ENTRIES) {
+                return;
+            }
+        }
+        Entity translated = ofy().save().toEntity(entity);
+        for (Field field : loadOnlyFields(entity.getClass())) {
+            try {
+                translated.setUnindexedProperty(field.getName(), field.get(entity));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        ENTRIES.put(translated.getKey(), new CacheEntry(translated, now + TTL_MILLIS));
+    }
+
+    /**
+     * Drops the cached entity of a key, after a write.
+     */
+    public static void invalidate(Key<?> key) {
+        ENTRIES.remove(key.getRaw());
+    }
+
+    /**
+     * Returns the fields of a class that are loaded from the datastore but never saved.
+     */
+    private static List<Field> loadOnlyFields(Class<?> entityClass) {
+        List<Field> fields = LOAD_ONLY_FIELDS.get(entityClass);
+        if (fields != null) {
+            return fields;
+        }
+        fields = new ArrayList<>();
+        for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                IgnoreSave ignoreSave = field.getAnnotation(IgnoreSave.class);
+                if (ignoreSave != null && Arrays.asList(ignoreSave.value()).equals(
+                        Collections.singletonList(Always.class))) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        LOAD_ONLY_FIELDS.putIfAbsent(entityClass, fields);
+        return fields;
+    }
+
+    private static void purgeExpired(long now) {
+        for (Map.Entry<com.google.appengine.api.datastore.Key, CacheEntry> entry
+                : ENTRIES.entrySet()) {
+            if (entry.getValue().expiresAt <= now) {
+                ENTRIES.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
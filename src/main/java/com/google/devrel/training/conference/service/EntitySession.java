@@ -0,0 +1,403 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.JobState;
+import com.google.devrel.training.conference.domain.PendingNotification;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.TrendingScore;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request-scoped ConferenceRepository in front of the configured engine.
+ *
+ * Entities loaded or saved during the request are kept by key, so loading the same key again
+ * (the organizer of every Conference in a list, the Profile read by two helpers) costs no
+ * further RPC, and a load of a key already in flight waits for that load. Every call that
+ * reaches the engine is counted, so the RPCs of a request can be checked against a budget.
+ *
+ * Inside a transaction every read goes to the engine, so it is part of the transaction, and
+ * the kept entities are dropped when the transaction ends, whatever its outcome.
+ *
+ * Outside transactions, reads follow the ReadConsistency the session was opened with: with
+ * EVENTUAL they go to an eventually consistent view of the engine, and with
+ * CACHE_ONLY_WITH_FALLBACK gets are answered from the EntityCache where possible.
+ *
+ * Sessions are opened and closed by RepositoryService and used by a single thread.
+ */
+public class EntitySession implements ConferenceRepository {
+
+    /**
+     * Kept for keys known not to exist.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    private final ConferenceRepository delegate;
+
+    /**
+     * The engine view reads outside transactions go to.
+     */
+    private final ConferenceRepository reader;
+
+    private final ReadConsistency consistency;
+
+    private final Map<Key<?>, Object> loaded = new HashMap<>();
+
+    private final Map<Key<?>, Result<?>> inFlight = new HashMap<>();
+
+    private int transactionDepth;
+
+    private int rpcCount;
+
+    private int dedupedCount;
+
+    private int cacheHitCount;
+
+    EntitySession(ConferenceRepository delegate, ReadConsistency consistency) {
+        this.delegate = delegate;
+        this.consistency = consistency;
+        this.reader = consistency == ReadConsistency.STRONG
+                ? delegate : delegate.eventuallyConsistent();
+    }
+
+    public ReadConsistency getConsistency() {
+        return consistency;
+    }
+
+    /**
+     * Returns the number of calls this session made to the engine.
+     */
+    public int getRpcCount() {
+        return rpcCount;
+    }
+
+    /**
+     * Returns the number of loads answered without a call to the engine.
+     */
+    public int getDedupedCount() {
+        return dedupedCount;
+    }
+
+    /**
+     * Returns the number of loads answered from the EntityCache.
+     */
+    public int getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    @Override
+    public <E> E load(Key<E> key) {
+        return loadAsync(key).now();
+    }
+
+    @Override
+    public <E> Result<E> loadAsync(final Key<E> key) {
+        if (transactionDepth > 0) {
+            rpcCount++;
+            return delegate.loadAsync(key);
+        }
+        Result<E> known = known(key);
+        if (known != null) {
+            dedupedCount++;
+            return known;
+        }
+        if (cached(key)) {
+            return known(key);
+        }
+        rpcCount++;
+        final Result<E> result = reader.loadAsync(key);
+        Result<E> pending = new Result<E>() {
+            @Override
+            public E now() {
+                E entity = result.now();
+                if (inFlight.get(key) == this) {
+                    inFlight.remove(key);
+                    loaded.put(key, entity == null ? NOT_FOUND : entity);
+                    if (entity != null && consistency == ReadConsistency.CACHE_ONLY_WITH_FALLBACK) {
+                        EntityCache.put(entity);
+                    }
+                }
+                return entity;
+            }
+        };
+        inFlight.put(key, pending);
+        return pending;
+    }
+
+    @Override
+    public <E> Map<Key<E>, E> loadAll(Collection<Key<E>> keys) {
+        if (transactionDepth > 0) {
+            rpcCount++;
+            return delegate.loadAll(keys);
+        }
+        List<Key<E>> missing = new ArrayList<>();
+        int cacheHits = 0;
+        for (Key<E> key : keys) {
+            if (known(key) == null) {
+                if (cached(key)) {
+                    cacheHits++;
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            rpcCount++;
+            Map<Key<E>, E> fetched = reader.loadAll(missing);
+            for (Key<E> key : missing) {
+                E entity = fetched.get(key);
+                loaded.put(key, entity == null ? NOT_FOUND : entity);
+                if (entity != null && consistency == ReadConsistency.CACHE_ONLY_WITH_FALLBACK) {
+                    EntityCache.put(entity);
+                }
+            }
+        }
+        dedupedCount += keys.size() - missing.size() - cacheHits;
+        Map<Key<E>, E> result = new LinkedHashMap<>();
+        for (Key<E> key : keys) {
+            E entity = known(key).now();
+            if (entity != null) {
+                result.put(key, entity);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Key<?>, Object> loadAll(Key<?>... keys) {
+        Map<Key<Object>, Object> result = loadAll((Collection<Key<Object>>) (Collection<?>)
+                Arrays.asList(keys));
+        return new LinkedHashMap<Key<?>, Object>(result);
+    }
+
+    @Override
+    public void save(Object... entities) {
+        rpcCount++;
+        delegate.save(entities);
+        remember(entities);
+    }
+
+    @Override
+    public void delete(Key<?>... keys) {
+        rpcCount++;
+        delegate.delete(keys);
+        for (Key<?> key : keys) {
+            EntityCache.invalidate(key);
+        }
+        if (transactionDepth == 0) {
+            for (Key<?> key : keys) {
+                inFlight.remove(key);
+                loaded.put(key, NOT_FOUND);
+            }
+        }
+    }
+
+    /**
+     * Returns this session: its reads already follow the consistency it was opened with.
+     */
+    @Override
+    public ConferenceRepository eventuallyConsistent() {
+        return this;
+    }
+
+    @Override
+    public Key<Conference> allocateConferenceKey(Key<Profile> organizerKey) {
+        rpcCount++;
+        return delegate.allocateConferenceKey(organizerKey);
+    }
+
+    @Override
+    public List<Conference> queryConferences(List<Filter> filters, List<String> orderBy) {
+        rpcCount++;
+        return reads().queryConferences(filters, orderBy);
+    }
+
+    @Override
+    public Page<Key<Conference>> getConferenceKeys(String cursor, int limit) {
+        rpcCount++;
+        return reads().getConferenceKeys(cursor, limit);
+    }
+
+    @Override
+    public List<Key<Conference>> getConferenceKeysByTopic(String topic, int limit) {
+        rpcCount++;
+        return reads().getConferenceKeysByTopic(topic, limit);
+    }
+
+    @Override
+    public List<Conference> getConferencesByOrganizer(Key<Profile> organizerKey) {
+        rpcCount++;
+        return reads().getConferencesByOrganizer(organizerKey);
+    }
+
+    @Override
+    public List<Conference> getConferencesBySeatsAvailable(String city, int moreThan,
+                                                           int lessThan, int limit) {
+        // The query on ConferenceInventory and the get of the conferences.
+        rpcCount += 2;
+        return reads().getConferencesBySeatsAvailable(city, moreThan, lessThan, limit);
+    }
+
+    @Override
+    public List<ArchivedConference> getArchivedConferences(int limit) {
+        rpcCount++;
+        return reads().getArchivedConferences(limit);
+    }
+
+    @Override
+    public List<Key<Conference>> getConferenceKeysEndedBefore(Date before, int limit) {
+        rpcCount++;
+        return reads().getConferenceKeysEndedBefore(before, limit);
+    }
+
+    @Override
+    public List<SeatHoldSlot> getSeatHoldSlotsExpiredBefore(Date before, int limit) {
+        rpcCount++;
+        return reads().getSeatHoldSlotsExpiredBefore(before, limit);
+    }
+
+    @Override
+    public List<Key<PendingNotification>> getPendingNotificationKeys(Date before, int limit) {
+        rpcCount++;
+        return reads().getPendingNotificationKeys(before, limit);
+    }
+
+    @Override
+    public List<PendingNotification> getPendingNotifications(Key<Profile> profileKey) {
+        rpcCount++;
+        return reads().getPendingNotifications(profileKey);
+    }
+
+    @Override
+    public List<TrendingScore> getTopTrendingScores(int limit) {
+        rpcCount++;
+        return reads().getTopTrendingScores(limit);
+    }
+
+    @Override
+    public Page<Attendee> getAttendees(Key<Conference> conferenceKey, String cursor,
+                                       int limit) {
+        rpcCount++;
+        return reads().getAttendees(conferenceKey, cursor, limit);
+    }
+
+    @Override
+    public <E> List<Key<E>> getScatterKeys(Class<E> kind, int limit) {
+        rpcCount++;
+        return reads().getScatterKeys(kind, limit);
+    }
+
+    @Override
+    public <E> Page<E> scanRange(Class<E> kind, Key<?> start, Key<?> end, String cursor,
+                                 int limit) {
+        rpcCount++;
+        return reads().scanRange(kind, start, end, cursor, limit);
+    }
+
+    @Override
+    public List<JobState> getRecentJobs(int limit) {
+        rpcCount++;
+        return reads().getRecentJobs(limit);
+    }
+
+    @Override
+    public <R> R transact(Work<R> work) {
+        // Begin and commit.
+        rpcCount += 2;
+        transactionDepth++;
+        try {
+            return delegate.transact(work);
+        } finally {
+            transactionDepth--;
+            if (transactionDepth == 0) {
+                loaded.clear();
+                inFlight.clear();
+            }
+        }
+    }
+
+    @Override
+    public void addTask(Queue queue, TaskOptions task) {
+        rpcCount++;
+        delegate.addTask(queue, task);
+    }
+
+    /**
+     * Returns the kept or in-flight load of a key, or null when the key wasn't loaded yet.
+     */
+    @SuppressWarnings("unchecked")
+    private <E> Result<E> known(Key<E> key) {
+        Result<?> pending = inFlight.get(key);
+        if (pending != null) {
+            return (Result<E>) pending;
+        }
+        if (!loaded.containsKey(key)) {
+            return null;
+        }
+        Object entity = loaded.get(key);
+        final E value = entity == NOT_FOUND ? null : (E) entity;
+        return new Result<E>() {
+            @Override
+            public E now() {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Keeps a load answered by the EntityCache, when the session reads from the cache.
+     *
+     * @return whether the key was found in the cache.
+     */
+    private <E> boolean cached(Key<E> key) {
+        if (consistency != ReadConsistency.CACHE_ONLY_WITH_FALLBACK) {
+            return false;
+        }
+        E entity = EntityCache.get(key);
+        if (entity == null) {
+            return false;
+        }
+        cacheHitCount++;
+        loaded.put(key, entity);
+        return true;
+    }
+
+    /**
+     * Returns the engine view for reads: the engine itself inside transactions.
+     */
+    private ConferenceRepository reads() {
+        return transactionDepth > 0 ? delegate : reader;
+    }
+
+    /**
+     * Keeps saved entities, so reading them back in the same request costs nothing, and
+     * evicts them from the EntityCache.
+     */
+    private void remember(Object... entities) {
+        for (Object entity : entities) {
+            Key<?> key = Key.create(entity);
+            EntityCache.invalidate(key);
+            if (transactionDepth == 0) {
+                inFlight.remove(key);
+                loaded.put(key, entity);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Helpers for idempotent API calls.
+ *
+ * A client may send the same idempotency key with every retry of a call. The first outcome is
+ * stored as an IdempotencyRecord inside the call's transaction and then cached in memcache,
+ * so a replay is answered from memcache without touching the datastore.
+ */
+public class IdempotencyService {
+
+    /**
+     * The longest idempotency key we accept; longer keys are ignored.
+     */
+    private static final int MAX_KEY_LENGTH = 128;
+
+    /**
+     * How long a recorded outcome stays in memcache.
+     */
+    private static final int CACHE_SECONDS = 24 * 60 * 60;
+
+    /**
+     * Returns the idempotency key sent with the request.
+     *
+     * @param request the current request, may be null.
+     * @return the idempotency key, or null when the request doesn't carry a usable one.
+     */
+    public static String getIdempotencyKey(HttpServletRequest request) {
+        if (request == null) {
+            return null;
+        }
+        String key = request.getHeader(Constants.IDEMPOTENCY_KEY_HEADER);
+        if (key == null) {
+            return null;
+        }
+        key = key.trim();
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the key of the IdempotencyRecord for the given call.
+     *
+     * @param userId the caller's userId.
+     * @param operation the name of the operation, e.g. "register".
+     * @param target the websafe key of the entity the operation acts on.
+     * @param idempotencyKey the client supplied idempotency key.
+     * @return the record key, or null when there is no idempotency key.
+     */
+    public static Key<IdempotencyRecord> recordKey(String userId, String operation, String target,
+                                                   String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return null;
+        }
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        return Key.create(profileKey, IdempotencyRecord.class,
+                operation + ":" + target + ":" + idempotencyKey);
+    }
+
+    /**
+     * Returns the cached outcome of an earlier call.
+     *
+     * @param recordKey the record key, may be null.
+     * @return the cached record, or null when there is none.
+     */
+    public static IdempotencyRecord getCached(Key<IdempotencyRecord> recordKey) {
+        if (recordKey == null) {
+            return null;
+        }
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object cached = memcacheService.get(memcacheKey(recordKey));
+        return cached instanceof IdempotencyRecord ? (IdempotencyRecord) cached : null;
+    }
+
+    /**
+     * Puts a committed record in memcache.
+     *
+     * @param record the record to cache, ignored when null.
+     */
+    public static void cache(IdempotencyRecord record) {
+        if (record == null) {
+            return;
+        }
+        Key<IdempotencyRecord> recordKey = Key.create(record.getProfileKey(),
+                IdempotencyRecord.class, record.getId());
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        memcacheService.put(memcacheKey(recordKey), record,
+                Expiration.byDeltaSeconds(CACHE_SECONDS));
+    }
+
+    private static String memcacheKey(Key<IdempotencyRecord> recordKey) {
+        return Constants.MEMCACHE_IDEMPOTENCY_PREFIX + recordKey.getString();
+    }
+}
@@ -0,0 +1,565 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.JobState;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.PendingNotification;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.TrendingScore;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.QueryPlanner;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * An in-memory engine of ConferenceRepository, for load testing the API logic on one box.
+ *
+ * Entities are kept as low-level datastore Entities, converted with Objectify's own
+ * translators, so every load returns a fresh object exactly like one from the datastore.
+ * Queries follow the datastore's filter and sort semantics. Transactions are serialized by a
+ * single lock and their writes are applied only when the work completes.
+ *
+ * Nothing here is persisted, and tasks are counted but not run.
+ */
+public class InMemoryConferenceRepository implements ConferenceRepository {
+
+    private static final String CONFERENCE_KIND = Key.getKind(Conference.class);
+
+    private static final String INVENTORY_KIND = Key.getKind(ConferenceInventory.class);
+
+    private static final String ATTENDEE_KIND = Key.getKind(Attendee.class);
+
+    private final ConcurrentMap<com.google.appengine.api.datastore.Key, Entity> store =
+            new ConcurrentHashMap<>();
+
+    private final ReentrantLock transactionLock = new ReentrantLock();
+
+    /**
+     * Writes of the transaction running on the current thread, null outside transactions.
+     */
+    private final ThreadLocal<Map<com.google.appengine.api.datastore.Key, Entity>> pending =
+            new ThreadLocal<>();
+
+    private final AtomicLong lastId = new AtomicLong();
+
+    @Override
+    public <E> E load(Key<E> key) {
+        Entity entity = read(key.getRaw());
+        return entity == null ? null : ofy().load().<E>fromEntity(entity);
+    }
+
+    @Override
+    public <E> Result<E> loadAsync(Key<E> key) {
+        final E entity = load(key);
+        return new Result<E>() {
+            @Override
+            public E now() {
+                return entity;
+            }
+        };
+    }
+
+    @Override
+    public <E> Map<Key<E>, E> loadAll(Collection<Key<E>> keys) {
+        Map<Key<E>, E> result = new LinkedHashMap<>();
+        for (Key<E> key : keys) {
+            E entity = load(key);
+            if (entity != null) {
+                result.put(key, entity);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Key<?>, Object> loadAll(Key<?>... keys) {
+        Map<Key<?>, Object> result = new LinkedHashMap<>();
+        for (Key<?> key : keys) {
+            Object entity = load(key);
+            if (entity != null) {
+                result.put(key, entity);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void save(Object... entities) {
+        Map<com.google.appengine.api.datastore.Key, Entity> writes = pending.get();
+        for (Object pojo : entities) {
+            Entity entity = ofy().save().toEntity(pojo);
+            if (writes != null) {
+                writes.put(entity.getKey(), entity);
+            } else {
+                store.put(entity.getKey(), entity);
+            }
+        }
+    }
+
+    @Override
+    public void delete(Key<?>... keys) {
+        Map<com.google.appengine.api.datastore.Key, Entity> writes = pending.get();
+        for (Key<?> key : keys) {
+            if (writes != null) {
+                // A null entity marks a delete, applied on commit.
+                writes.put(key.getRaw(), null);
+            } else {
+                store.remove(key.getRaw());
+            }
+        }
+    }
+
+    /**
+     * Returns this repository: its reads are always consistent.
+     */
+    @Override
+    public ConferenceRepository eventuallyConsistent() {
+        return this;
+    }
+
+    @Override
+    public Key<Conference> allocateConferenceKey(Key<Profile> organizerKey) {
+        return Key.create(organizerKey, Conference.class, lastId.incrementAndGet());
+    }
+
+    @Override
+    public List<Conference> queryConferences(List<Filter> filters, List<String> orderBy) {
+        List<Conference> result = new ArrayList<>();
+        for (Conference conference : allConferences()) {
+            boolean matches = true;
+            for (Filter filter : filters) {
+                if (!QueryPlanner.matches(filter, conference)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                result.add(conference);
+            }
+        }
+        Collections.sort(result, ordering(orderBy));
+        return result;
+    }
+
+    @Override
+    public Page<Key<Conference>> getConferenceKeys(String cursor, int limit) {
+        List<Key<Conference>> keys = new ArrayList<>();
+        for (Conference conference : allConferences()) {
+            keys.add(conference.getKey());
+        }
+        Collections.sort(keys);
+        // The cursor is the websafe key of the last conference of the previous page.
+        Key<Conference> after = cursor == null ? null : Key.<Conference>create(cursor);
+        List<Key<Conference>> page = new ArrayList<>(limit);
+        for (Key<Conference> key : keys) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (after == null || key.compareTo(after) > 0) {
+                page.add(key);
+            }
+        }
+        String next = page.size() < limit ? null : page.get(page.size() - 1).getString();
+        return new Page<>(page, next);
+    }
+
+    @Override
+    public List<Key<Conference>> getConferenceKeysByTopic(String topic, int limit) {
+        List<Key<Conference>> keys = new ArrayList<>();
+        for (Conference conference : allConferences()) {
+            if (keys.size() == limit) {
+                break;
+            }
+            if (conference.getTopics() != null && conference.getTopics().contains(topic)) {
+                keys.add(conference.getKey());
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public List<Conference> getConferencesByOrganizer(Key<Profile> organizerKey) {
+        List<Conference> result = new ArrayList<>();
+        for (Conference conference : allConferences()) {
+            if (organizerKey.equals(conference.getProfileKey())) {
+                result.add(conference);
+            }
+        }
+        Collections.sort(result, ordering(Collections.singletonList("name")));
+        return result;
+    }
+
+    @Override
+    public List<Conference> getConferencesBySeatsAvailable(String city, int moreThan,
+                                                           int lessThan, int limit) {
+        List<ConferenceInventory> inventories = new ArrayList<>();
+        for (Entity entity : store.values()) {
+            if (INVENTORY_KIND.equals(entity.getKind())) {
+                ConferenceInventory inventory =
+                        ofy().load().<ConferenceInventory>fromEntity(entity);
+                if (inventory.getSeatsAvailable() > moreThan
+                        && inventory.getSeatsAvailable() < lessThan
+                        && (city == null || city.equals(inventory.getCity()))) {
+                    inventories.add(inventory);
+                }
+            }
+        }
+        Collections.sort(inventories, new Comparator<ConferenceInventory>() {
+            @Override
+            public int compare(ConferenceInventory a, ConferenceInventory b) {
+                int comparison = Integer.compare(a.getSeatsAvailable(), b.getSeatsAvailable());
+                return comparison != 0 ? comparison
+                        : a.getWebsafeConferenceKey().compareTo(b.getWebsafeConferenceKey());
+            }
+        });
+        List<Conference> result = new ArrayList<>();
+        for (ConferenceInventory inventory : inventories) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Conference conference = load(inventory.getConferenceKey());
+            if (conference != null) {
+                conference.attachInventory(inventory);
+                result.add(conference);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<ArchivedConference> getArchivedConferences(int limit) {
+        List<ArchivedConference> conferences = new ArrayList<>();
+        for (Entity entity : entitiesOf(ArchivedConference.class)) {
+            conferences.add(ofy().load().<ArchivedConference>fromEntity(entity));
+        }
+        Collections.sort(conferences, new Comparator<ArchivedConference>() {
+            @Override
+            public int compare(ArchivedConference a, ArchivedConference b) {
+                // Descending, with missing end dates last as in the datastore.
+                if (a.getEndDate() == null || b.getEndDate() == null) {
+                    return a.getEndDate() == null ? (b.getEndDate() == null ? 0 : 1) : -1;
+                }
+                return b.getEndDate().compareTo(a.getEndDate());
+            }
+        });
+        return conferences.size() > limit
+                ? new ArrayList<>(conferences.subList(0, limit)) : conferences;
+    }
+
+    @Override
+    public List<Key<Conference>> getConferenceKeysEndedBefore(Date before, int limit) {
+        List<Conference> conferences = new ArrayList<>();
+        for (Entity entity : entitiesOf(Conference.class)) {
+            Conference conference = ofy().load().<Conference>fromEntity(entity);
+            if (conference.getEndDate() != null && conference.getEndDate().before(before)) {
+                conferences.add(conference);
+            }
+        }
+        Collections.sort(conferences, new Comparator<Conference>() {
+            @Override
+            public int compare(Conference a, Conference b) {
+                return a.getEndDate().compareTo(b.getEndDate());
+            }
+        });
+        List<Key<Conference>> keys = new ArrayList<>();
+        for (Conference conference : conferences) {
+            if (keys.size() == limit) {
+                break;
+            }
+            keys.add(conference.getKey());
+        }
+        return keys;
+    }
+
+    @Override
+    public List<SeatHoldSlot> getSeatHoldSlotsExpiredBefore(Date before, int limit) {
+        List<SeatHoldSlot> slots = new ArrayList<>();
+        for (Entity entity : entitiesOf(SeatHoldSlot.class)) {
+            SeatHoldSlot slot = ofy().load().<SeatHoldSlot>fromEntity(entity);
+            if (slot.getExpires() != null && slot.getExpires().before(before)) {
+                slots.add(slot);
+            }
+        }
+        Collections.sort(slots, new Comparator<SeatHoldSlot>() {
+            @Override
+            public int compare(SeatHoldSlot a, SeatHoldSlot b) {
+                return a.getExpires().compareTo(b.getExpires());
+            }
+        });
+        return slots.size() > limit ? new ArrayList<>(slots.subList(0, limit)) : slots;
+    }
+
+    @Override
+    public List<Key<PendingNotification>> getPendingNotificationKeys(Date before, int limit) {
+        List<PendingNotification> notifications = new ArrayList<>();
+        for (Entity entity : entitiesOf(PendingNotification.class)) {
+            PendingNotification notification =
+                    ofy().load().<PendingNotification>fromEntity(entity);
+            if (notification.getCreated().before(before)) {
+                notifications.add(notification);
+            }
+        }
+        Collections.sort(notifications, new Comparator<PendingNotification>() {
+            @Override
+            public int compare(PendingNotification a, PendingNotification b) {
+                return a.getCreated().compareTo(b.getCreated());
+            }
+        });
+        List<Key<PendingNotification>> keys = new ArrayList<>();
+        for (PendingNotification notification : notifications) {
+            if (keys.size() == limit) {
+                break;
+            }
+            keys.add(Key.create(notification));
+        }
+        return keys;
+    }
+
+    @Override
+    public List<PendingNotification> getPendingNotifications(Key<Profile> profileKey) {
+        // In key order, which is time order.
+        List<PendingNotification> notifications = new ArrayList<>();
+        for (Entity entity : entitiesOf(PendingNotification.class)) {
+            if (profileKey.getRaw().equals(entity.getParent())) {
+                notifications.add(ofy().load().<PendingNotification>fromEntity(entity));
+            }
+        }
+        return notifications;
+    }
+
+    @Override
+    public List<TrendingScore> getTopTrendingScores(int limit) {
+        List<TrendingScore> scores = new ArrayList<>();
+        for (Entity entity : entitiesOf(TrendingScore.class)) {
+            scores.add(ofy().load().<TrendingScore>fromEntity(entity));
+        }
+        Collections.sort(scores, new Comparator<TrendingScore>() {
+            @Override
+            public int compare(TrendingScore a, TrendingScore b) {
+                return Double.compare(b.getLogScore(), a.getLogScore());
+            }
+        });
+        return scores.size() > limit ? new ArrayList<>(scores.subList(0, limit)) : scores;
+    }
+
+    @Override
+    public Page<Attendee> getAttendees(Key<Conference> conferenceKey, String cursor,
+                                       int limit) {
+        List<Entity> entities = new ArrayList<>();
+        for (Entity entity : store.values()) {
+            if (ATTENDEE_KIND.equals(entity.getKind())
+                    && conferenceKey.getRaw().equals(entity.getParent())) {
+                entities.add(entity);
+            }
+        }
+        Collections.sort(entities, new Comparator<Entity>() {
+            @Override
+            public int compare(Entity a, Entity b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+        // The cursor is the userId of the last attendee of the previous page.
+        List<Attendee> attendees = new ArrayList<>(limit);
+        for (Entity entity : entities) {
+            if (attendees.size() == limit) {
+                break;
+            }
+            if (cursor == null || entity.getKey().getName().compareTo(cursor) > 0) {
+                attendees.add(ofy().load().<Attendee>fromEntity(entity));
+            }
+        }
+        String next = attendees.size() < limit
+                ? null : attendees.get(attendees.size() - 1).getUserId();
+        return new Page<>(attendees, next);
+    }
+
+    @Override
+    public <E> List<Key<E>> getScatterKeys(Class<E> kind, int limit) {
+        List<Key<E>> keys = new ArrayList<>();
+        for (Entity entity : entitiesOf(kind)) {
+            keys.add(Key.<E>create(entity.getKey()));
+        }
+        if (keys.size() <= limit) {
+            return keys;
+        }
+        // Every n-th key is as evenly spread as a scatter sample.
+        List<Key<E>> sample = new ArrayList<>(limit);
+        for (int i = 0; i < limit; i++) {
+            sample.add(keys.get(i * keys.size() / limit));
+        }
+        return sample;
+    }
+
+    @Override
+    public <E> Page<E> scanRange(Class<E> kind, Key<?> start, Key<?> end, String cursor,
+                                 int limit) {
+        // The cursor is the websafe key of the last entity of the previous page.
+        com.google.appengine.api.datastore.Key after =
+                cursor == null ? null : KeyFactory.stringToKey(cursor);
+        List<E> entities = new ArrayList<>(limit);
+        com.google.appengine.api.datastore.Key last = null;
+        for (Entity entity : entitiesOf(kind)) {
+            if (entities.size() == limit) {
+                break;
+            }
+            com.google.appengine.api.datastore.Key key = entity.getKey();
+            if ((start == null || key.compareTo(start.getRaw()) >= 0)
+                    && (end == null || key.compareTo(end.getRaw()) < 0)
+                    && (after == null || key.compareTo(after) > 0)) {
+                entities.add(ofy().load().<E>fromEntity(entity));
+                last = key;
+            }
+        }
+        String next = entities.size() < limit ? null : KeyFactory.keyToString(last);
+        return new Page<>(entities, next);
+    }
+
+    @Override
+    public List<JobState> getRecentJobs(int limit) {
+        List<JobState> jobs = new ArrayList<>();
+        for (Entity entity : entitiesOf(JobState.class)) {
+            jobs.add(ofy().load().<JobState>fromEntity(entity));
+        }
+        Collections.sort(jobs, new Comparator<JobState>() {
+            @Override
+            public int compare(JobState a, JobState b) {
+                return b.getStarted().compareTo(a.getStarted());
+            }
+        });
+        return jobs.size() > limit ? new ArrayList<>(jobs.subList(0, limit)) : jobs;
+    }
+
+    @Override
+    public <R> R transact(Work<R> work) {
+        if (pending.get() != null) {
+            // Already in a transaction: join it.
+            return work.run();
+        }
+        transactionLock.lock();
+        Map<com.google.appengine.api.datastore.Key, Entity> writes = new HashMap<>();
+        pending.set(writes);
+        try {
+            R result = work.run();
+            for (Map.Entry<com.google.appengine.api.datastore.Key, Entity> write
+                    : writes.entrySet()) {
+                if (write.getValue() == null) {
+                    store.remove(write.getKey());
+                } else {
+                    store.put(write.getKey(), write.getValue());
+                }
+            }
+            return result;
+        } finally {
+            pending.remove();
+            transactionLock.unlock();
+        }
+    }
+
+    @Override
+    public void addTask(Queue queue, TaskOptions task) {
+        Metrics.increment("inMemoryRepository.tasks." + queue.getQueueName());
+    }
+
+    private Entity read(com.google.appengine.api.datastore.Key rawKey) {
+        Map<com.google.appengine.api.datastore.Key, Entity> writes = pending.get();
+        if (writes != null && writes.containsKey(rawKey)) {
+            return writes.get(rawKey);
+        }
+        return store.get(rawKey);
+    }
+
+    /**
+     * Returns the stored entities of a kind, in key order.
+     */
+    private List<Entity> entitiesOf(Class<?> kind) {
+        String kindName = Key.getKind(kind);
+        List<Entity> entities = new ArrayList<>();
+        for (Entity entity : store.values()) {
+            if (kindName.equals(entity.getKind())) {
+                entities.add(entity);
+            }
+        }
+        Collections.sort(entities, new Comparator<Entity>() {
+            @Override
+            public int compare(Entity a, Entity b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+        return entities;
+    }
+
+    private List<Conference> allConferences() {
+        List<Conference> conferences = new ArrayList<>();
+        for (Entity entity : store.values()) {
+            if (CONFERENCE_KIND.equals(entity.getKind())) {
+                conferences.add(ofy().load().<Conference>fromEntity(entity));
+            }
+        }
+        return conferences;
+    }
+
+    /**
+     * Returns a comparator sorting conferences by the given properties, like the datastore.
+     */
+    private static Comparator<Conference> ordering(final List<String> orderBy) {
+        return new Comparator<Conference>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(Conference a, Conference b) {
+                for (String property : orderBy) {
+                    Comparable<Object> valueA = (Comparable<Object>) property(a, property);
+                    Object valueB = property(b, property);
+                    int comparison;
+                    if (valueA == null || valueB == null) {
+                        comparison = valueA == null ? (valueB == null ? 0 : -1) : 1;
+                    } else {
+                        comparison = valueA.compareTo(valueB);
+                    }
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+                return a.getWebsafeKey().compareTo(b.getWebsafeKey());
+            }
+        };
+    }
+
+    private static Comparable<?> property(Conference conference, String property) {
+        switch (property) {
+            case "name":
+                return conference.getName();
+            case "city":
+                return conference.getCity();
+            case "month":
+                return conference.getMonth();
+            case "maxAttendees":
+                return conference.getMaxAttendees();
+            default:
+                throw new IllegalArgumentException("Can't sort Conference by " + property);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.JobShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Gives every Conference created before inventories were split out its ConferenceInventory.
+ *
+ * Such a Conference still works, since Conference.getInventory() builds an inventory from its
+ * legacy seatsAvailable and seatsVersion fields, but every seat lookup for it costs a second
+ * get and the seat queries, which run on the inventory kind, never find it. This is a one-off
+ * job, started from the jobs admin page.
+ *
+ * The inventories of a batch are looked up with one batched get. Each missing one is created
+ * in its own transaction, which checks again that no booking saved it in the meantime, so a
+ * batch can safely run again.
+ */
+public class InventoryBackfillJob extends ShardedJob<Conference> {
+
+    public static final String NAME = "inventoryBackfill";
+
+    private static final TransactionRunner TRANSACTION_RUNNER = new TransactionRunner();
+
+    public InventoryBackfillJob() {
+        super(NAME, Conference.class);
+    }
+
+    @Override
+    public void processBatch(List<Conference> batch, JobShard shard) {
+        List<Key<ConferenceInventory>> inventoryKeys = new ArrayList<>(batch.size());
+        for (Conference conference : batch) {
+            inventoryKeys.add(ConferenceInventory.keyOf(conference.getKey()));
+        }
+        Map<Key<ConferenceInventory>, ConferenceInventory> inventories =
+                repository().loadAll(inventoryKeys);
+        for (Key<ConferenceInventory> inventoryKey : inventoryKeys) {
+            if (!inventories.containsKey(inventoryKey)) {
+                backfill(inventoryKey);
+            }
+        }
+    }
+
+    /**
+     * Saves the inventory of one Conference, built from its legacy fields.
+     *
+     * @param inventoryKey the key of the missing ConferenceInventory.
+     */
+    private static void backfill(final Key<ConferenceInventory> inventoryKey) {
+        final Key<Conference> conferenceKey = inventoryKey.getParent();
+        boolean created = TRANSACTION_RUNNER.run(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                Conference conference = repository().load(conferenceKey);
+                if (conference == null || repository().load(inventoryKey) != null) {
+                    return false;
+                }
+                repository().save(conference.getInventory());
+                return true;
+            }
+        }, "inventoryBackfill");
+        if (created) {
+            SeatInventory.invalidate(conferenceKey.getString());
+            Metrics.increment("jobs." + NAME + ".created");
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.JobOutput;
+import com.google.devrel.training.conference.domain.JobShard;
+import com.google.devrel.training.conference.domain.JobState;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Runs ShardedJobs on the task queue.
+ *
+ * start() splits the kind of a job into key ranges using the __scatter__ sample the datastore
+ * keeps on every kind, saves a JobState and one JobShard per range, and enqueues one task per
+ * shard. A shard task processes batches until its time slice is used up, committing the
+ * cursor after every batch, and then hands the shard over to a continuation task. The
+ * hand-over and every checkpoint check the shard's sequence number, so a retried task that
+ * has been superseded stops instead of processing a range twice.
+ *
+ * When the last shard is done a finish task is enqueued, which calls ShardedJob.finish().
+ */
+public class JobService {
+
+    private static final Logger LOG = Logger.getLogger(JobService.class.getName());
+
+    public static final String QUEUE_NAME = "batch-queue";
+
+    public static final String TASK_URL = "/tasks/job";
+
+    /**
+     * How long a shard task works before handing over to a continuation task. Well inside
+     * the 10 minute task deadline, so progress is committed often.
+     */
+    private static final long SLICE_MILLIS = Long.getLong("conference.jobs.sliceMillis", 60000L);
+
+    /**
+     * Scatter keys sampled per shard to choose the split points.
+     */
+    private static final int OVERSAMPLING = 32;
+
+    private static final int MAX_SHARDS = 64;
+
+    private static final Map<String, ShardedJob<?>> JOBS = new LinkedHashMap<>();
+
+    static {
+        register(new AnnouncementJob());
+        register(new ArchivalJob());
+        register(new InventoryBackfillJob());
+        register(new AttendeeBackfillJob());
+    }
+
+    /**
+     * Makes a job available to start() under its name.
+     *
+     * @param job the job.
+     */
+    public static synchronized void register(ShardedJob<?> job) {
+        JOBS.put(job.getName(), job);
+    }
+
+    public static synchronized Collection<ShardedJob<?>> getJobs() {
+        return new ArrayList<>(JOBS.values());
+    }
+
+    private static synchronized ShardedJob<?> getJob(String name) {
+        ShardedJob<?> job = JOBS.get(name);
+        if (job == null) {
+            throw new IllegalArgumentException("No job named " + name);
+        }
+        return job;
+    }
+
+    /**
+     * Starts a run of a job.
+     *
+     * @param name the name of the job.
+     * @param shardCount the number of shards wanted, or 0 for the job's default. There may be
+     *         fewer when the kind is small.
+     * @return the JobState of the run.
+     * @throws IllegalArgumentException when there is no such job.
+     */
+    public static JobState start(String name, int shardCount) {
+        ShardedJob<?> job = getJob(name);
+        int wanted = shardCount > 0 ? Math.min(shardCount, MAX_SHARDS)
+                : job.getDefaultShardCount();
+
+        // Evenly spaced scatter keys are evenly spaced split points.
+        List<Key<?>> sample = new ArrayList<Key<?>>(
+                repository().getScatterKeys(job.getKind(), wanted * OVERSAMPLING));
+        Collections.sort(sample);
+        List<Key<?>> splits = new ArrayList<>();
+        for (int i = 1; i < wanted && !sample.isEmpty(); i++) {
+            Key<?> split = sample.get(i * sample.size() / wanted);
+            if (splits.isEmpty() || !splits.get(splits.size() - 1).equals(split)) {
+                splits.add(split);
+            }
+        }
+
+        String jobId = name + "-" + System.currentTimeMillis();
+        List<Object> entities = new ArrayList<>();
+        JobState state = new JobState(jobId, name, splits.size() + 1);
+        entities.add(state);
+        for (int i = 0; i <= splits.size(); i++) {
+            entities.add(new JobShard(jobId, i, i == 0 ? null : splits.get(i - 1),
+                    i == splits.size() ? null : splits.get(i)));
+        }
+        repository().save(entities.toArray());
+
+        List<TaskOptions> tasks = new ArrayList<>();
+        for (int i = 0; i <= splits.size(); i++) {
+            tasks.add(shardTask(jobId, i, 0));
+        }
+        QueueFactory.getQueue(QUEUE_NAME).add(tasks);
+        Metrics.increment("jobs." + name + ".started");
+        LOG.info("Started " + jobId + " with " + tasks.size() + " shards");
+        return state;
+    }
+
+    /**
+     * Works on a shard for one time slice. Called by the shard tasks.
+     *
+     * @param jobId the id of the JobState.
+     * @param index the index of the shard.
+     * @param sequence the sequence number the task was enqueued with.
+     */
+    public static void runShard(String jobId, int index, long sequence) {
+        JobState state = repository().load(Key.create(JobState.class, jobId));
+        JobShard shard = repository().load(JobShard.keyOf(jobId, index));
+        if (state == null || shard == null || shard.getSequence() != sequence) {
+            // Superseded by a continuation task.
+            Metrics.increment("jobs.staleTasks");
+            return;
+        }
+        if (shard.isDone()) {
+            // A retry of a task that marked the shard done but failed before finishing the job.
+            Metrics.increment("jobs.staleTasks");
+            maybeFinish(jobId);
+            return;
+        }
+        long deadline = System.currentTimeMillis() + SLICE_MILLIS;
+        while (!shard.isDone() && System.currentTimeMillis() < deadline) {
+            try {
+                runBatch(getJob(state.getName()), shard);
+            } catch (RuntimeException e) {
+                recordFailure(shard, e);
+                // The task queue retries the task, which resumes from the last checkpoint.
+                throw e;
+            }
+            if (!checkpoint(shard, false)) {
+                return;
+            }
+        }
+        if (shard.isDone()) {
+            maybeFinish(jobId);
+        } else {
+            checkpoint(shard, true);
+        }
+    }
+
+    private static <E> void runBatch(ShardedJob<E> job, JobShard shard) {
+        long start = System.currentTimeMillis();
+        Page<E> page = repository().scanRange(job.getKind(), shard.getStart(), shard.getEnd(),
+                shard.getCursor(), job.getBatchSize());
+        job.processBatch(page.getItems(), shard);
+        shard.advance(page.getCursor(), page.getItems().size());
+        Metrics.add("jobs." + job.getName() + ".processed", page.getItems().size());
+        Metrics.recordLatency("jobs." + job.getName() + ".batch",
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Commits the progress of a shard, if no other task has taken it over.
+     *
+     * @param shard the shard with its new progress.
+     * @param handOver whether to hand the shard over to a continuation task.
+     * @return false when the shard has been taken over.
+     */
+    private static boolean checkpoint(final JobShard shard, final boolean handOver) {
+        final long owned = shard.getSequence();
+        // Taken once, outside the transaction, so a retried attempt still saves it.
+        final JobOutput output = shard.takeOutput();
+        return repository().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                JobShard stored = repository().load(
+                        JobShard.keyOf(shard.getJobId(), shard.getIndex()));
+                if (stored == null || stored.getSequence() != owned) {
+                    return false;
+                }
+                if (handOver) {
+                    shard.setSequence(owned + 1);
+                    repository().addTask(QueueFactory.getQueue(QUEUE_NAME),
+                            shardTask(shard.getJobId(), shard.getIndex(), owned + 1));
+                }
+                if (output != null) {
+                    repository().save(shard, output);
+                } else {
+                    repository().save(shard);
+                }
+                return true;
+            }
+        });
+    }
+
+    private static void recordFailure(final JobShard shard, final RuntimeException e) {
+        LOG.log(Level.WARNING, "Batch of " + shard.getJobId() + "/" + shard.getIndex()
+                + " failed", e);
+        Metrics.increment("jobs.failures");
+        try {
+            repository().transact(new Work<Void>() {
+                @Override
+                public Void run() {
+                    JobShard stored = repository().load(
+                            JobShard.keyOf(shard.getJobId(), shard.getIndex()));
+                    if (stored != null) {
+                        stored.recordFailure(String.valueOf(e));
+                        repository().save(stored);
+                    }
+                    return null;
+                }
+            });
+        } catch (RuntimeException recordingFailure) {
+            LOG.log(Level.WARNING, "Could not record the failure", recordingFailure);
+        }
+    }
+
+    /**
+     * Enqueues the finish task once every shard of the job is done.
+     */
+    private static void maybeFinish(final String jobId) {
+        final JobState state = repository().load(Key.create(JobState.class, jobId));
+        for (JobShard shard : getShards(state)) {
+            if (shard == null || !shard.isDone()) {
+                return;
+            }
+        }
+        repository().transact(new Work<Void>() {
+            @Override
+            public Void run() {
+                JobState stored = repository().load(Key.create(JobState.class, jobId));
+                if (stored.getStatus() == JobState.Status.RUNNING) {
+                    stored.setFinishing();
+                    repository().save(stored);
+                    repository().addTask(QueueFactory.getQueue(QUEUE_NAME),
+                            TaskOptions.Builder.withUrl(TASK_URL)
+                                    .param("op", "finish").param("jobId", jobId));
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the finish step of a job. Called by the finish task.
+     *
+     * @param jobId the id of the JobState.
+     */
+    public static void finish(String jobId) {
+        JobState state = repository().load(Key.create(JobState.class, jobId));
+        if (state == null || state.getStatus() != JobState.Status.FINISHING) {
+            return;
+        }
+        getJob(state.getName()).finish(state, getShards(state));
+        state.setDone();
+        repository().save(state);
+        Metrics.recordLatency("jobs." + state.getName() + ".run",
+                state.getFinished().getTime() - state.getStarted().getTime());
+        LOG.info("Finished " + jobId);
+    }
+
+    /**
+     * Returns the shards of a job, in index order.
+     *
+     * @param state the job.
+     * @return the shards; an element is null if its JobShard is missing.
+     */
+    public static List<JobShard> getShards(JobState state) {
+        List<Key<JobShard>> keys = new ArrayList<>(state.getShardCount());
+        for (int i = 0; i < state.getShardCount(); i++) {
+            keys.add(JobShard.keyOf(state.getId(), i));
+        }
+        Map<Key<JobShard>, JobShard> loaded = repository().loadAll(keys);
+        List<JobShard> shards = new ArrayList<>(keys.size());
+        for (Key<JobShard> key : keys) {
+            shards.add(loaded.get(key));
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the lines a shard emitted, in batch order.
+     *
+     * @param shard the shard.
+     * @return the lines of all its committed batches.
+     */
+    public static List<String> getOutput(JobShard shard) {
+        List<Key<JobOutput>> keys = new ArrayList<>(shard.getBatches());
+        for (int batch = 1; batch <= shard.getBatches(); batch++) {
+            keys.add(JobOutput.keyOf(shard.getKey(), batch));
+        }
+        Map<Key<JobOutput>, JobOutput> loaded = repository().loadAll(keys);
+        List<String> lines = new ArrayList<>();
+        for (Key<JobOutput> key : keys) {
+            JobOutput output = loaded.get(key);
+            if (output != null) {
+                lines.addAll(output.getLines());
+            }
+        }
+        return lines;
+    }
+
+    private static TaskOptions shardTask(String jobId, int index, long sequence) {
+        return TaskOptions.Builder.withUrl(TASK_URL)
+                .param("op", "shard")
+                .param("jobId", jobId)
+                .param("shard", String.valueOf(index))
+                .param("sequence", String.valueOf(sequence));
+    }
+}
@@ -0,0 +1,82 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process counters for this instance.
+ *
+ * Counters are cheap enough to bump on every request. They are reset when the instance
+ * restarts, and can be read through MetricsServlet.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Adds one to the named counter.
+     *
+     * @param name the counter name.
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds delta to the named counter.
+     *
+     * @param name the counter name.
+     * @param delta the value to add.
+     */
+    public static void add(String name, long delta) {
+        AtomicLong counter = COUNTERS.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = COUNTERS.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Records one timed call as name.count and name.totalMillis.
+     *
+     * @param name the operation name.
+     * @param millis the elapsed time in milliseconds.
+     */
+    public static void recordLatency(String name, long millis) {
+        add(name + ".count", 1);
+        add(name + ".totalMillis", millis);
+    }
+
+    /**
+     * Returns the current value of the named counter.
+     *
+     * @param name the counter name.
+     * @return the value, 0 when the counter has never been touched.
+     */
+    public static long get(String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Returns a copy of all counters sorted by name.
+     *
+     * @return counter name to value.
+     */
+    public static SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,163 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.PendingNotification;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Mails the buffered PendingNotifications of each user as one digest.
+ *
+ * The API saves a PendingNotification with every action worth a mail. Once the oldest
+ * notification of a user is older than conference.notification.windowMinutes, flush()
+ * deletes all of the user's notifications and enqueues a single mail task for them, in one
+ * transaction on the user's entity group. Mails and tasks so grow with the number of users
+ * active in a window, not with the number of actions.
+ */
+public class Notifications {
+
+    /**
+     * How long the events of a user are collected before the digest goes out.
+     */
+    private static final int WINDOW_MINUTES =
+            Integer.getInteger("conference.notification.windowMinutes", 15);
+
+    /**
+     * The most notifications looked at by one flush; the rest wait for the next one.
+     */
+    private static final int FLUSH_BATCH = 1000;
+
+    private static final String QUEUE_NAME = "email-queue";
+
+    private static final String TASK_URL = "/tasks/send_confirmation_email";
+
+    private static final String SUBJECT = "Your Conference Central updates";
+
+    private static final TransactionRunner TRANSACTION_RUNNER = new TransactionRunner();
+
+    /**
+     * Sends the digests of the users whose oldest notification is older than the window.
+     *
+     * @return the number of digests sent.
+     */
+    public static int flush() {
+        Date before = new Date(System.currentTimeMillis() - WINDOW_MINUTES * 60 * 1000L);
+        Set<Key<Profile>> recipients = new LinkedHashSet<>();
+        for (Key<PendingNotification> key
+                : repository().getPendingNotificationKeys(before, FLUSH_BATCH)) {
+            recipients.add(key.<Profile>getParent());
+        }
+        int digests = 0;
+        for (Key<Profile> profileKey : recipients) {
+            if (flush(profileKey)) {
+                digests++;
+            }
+        }
+        Metrics.add("notifications.digests", digests);
+        return digests;
+    }
+
+    /**
+     * Sends the digest of one user.
+     *
+     * @return false when another flush got the notifications first.
+     */
+    private static boolean flush(final Key<Profile> profileKey) {
+        List<PendingNotification> pending = repository().getPendingNotifications(profileKey);
+        if (pending.isEmpty()) {
+            return false;
+        }
+        final Profile profile = repository().load(profileKey);
+        final Map<String, String> names = conferenceNames(pending);
+        final List<Key<PendingNotification>> keys = new ArrayList<>(pending.size());
+        for (PendingNotification notification : pending) {
+            keys.add(Key.create(notification));
+        }
+
+        Integer sent = TRANSACTION_RUNNER.run(new Work<Integer>() {
+            @Override
+            public Integer run() {
+                // Only what is still there: a concurrent flush may have sent some already.
+                Collection<PendingNotification> notifications =
+                        repository().loadAll(keys).values();
+                if (notifications.isEmpty()) {
+                    return 0;
+                }
+                List<Key<PendingNotification>> found = new ArrayList<>(notifications.size());
+                for (PendingNotification notification : notifications) {
+                    found.add(Key.create(notification));
+                }
+                repository().delete(found.toArray(new Key<?>[found.size()]));
+                if (profile != null && profile.getMainEmail() != null) {
+                    repository().addTask(QueueFactory.getQueue(QUEUE_NAME),
+                            TaskOptions.Builder.withUrl(TASK_URL)
+                                    .param("email", profile.getMainEmail())
+                                    .param("subject", SUBJECT)
+                                    .param("body", render(profile, notifications, names)));
+                }
+                return notifications.size();
+            }
+        }, "notifications.flush");
+        Metrics.add("notifications.events", sent);
+        return sent > 0;
+    }
+
+    /**
+     * Loads the names of the conferences of the notifications in one batch.
+     *
+     * @return the names by websafe Conference key.
+     */
+    private static Map<String, String> conferenceNames(List<PendingNotification> pending) {
+        Set<Key<Conference>> conferenceKeys = new HashSet<>();
+        for (PendingNotification notification : pending) {
+            conferenceKeys.add(Key.<Conference>create(notification.getWebsafeConferenceKey()));
+        }
+        Map<String, String> names = new HashMap<>();
+        for (Conference conference : repository().loadAll(conferenceKeys).values()) {
+            names.put(conference.getWebsafeKey(), conference.getName());
+        }
+        return names;
+    }
+
+    private static String render(Profile profile, Collection<PendingNotification> notifications,
+                                 Map<String, String> names) {
+        StringBuilder body = new StringBuilder();
+        body.append("Hi ").append(profile.getDisplayName()).append(",\n\n")
+                .append("Here is what happened since your last update:\n\n");
+        for (PendingNotification notification : notifications) {
+            String name = names.get(notification.getWebsafeConferenceKey());
+            if (name == null) {
+                name = "a conference that no longer exists";
+            }
+            switch (notification.getType()) {
+                case CONFERENCE_CREATED:
+                    body.append("- You created ").append(name).append(".\n");
+                    break;
+                case REGISTERED:
+                    body.append("- You registered for ").append(name).append(".\n");
+                    break;
+                case UNREGISTERED:
+                    body.append("- You unregistered from ").append(name).append(".\n");
+                    break;
+                default:
+                    break;
+            }
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,280 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.ReadPolicy.Consistency;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.JobState;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.PendingNotification;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.TrendingScore;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.FieldType;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * The datastore engine of ConferenceRepository, backed by Objectify.
+ */
+public class ObjectifyConferenceRepository implements ConferenceRepository {
+
+    private static final Logger LOG =
+            Logger.getLogger(ObjectifyConferenceRepository.class.getName());
+
+    /**
+     * The consistency of gets and ancestor queries.
+     */
+    private final Consistency consistency;
+
+    public ObjectifyConferenceRepository() {
+        this(Consistency.STRONG);
+    }
+
+    private ObjectifyConferenceRepository(Consistency consistency) {
+        this.consistency = consistency;
+    }
+
+    @Override
+    public <E> E load(Key<E> key) {
+        return reader().load().key(key).now();
+    }
+
+    @Override
+    public <E> Result<E> loadAsync(Key<E> key) {
+        final LoadResult<E> result = reader().load().key(key);
+        return new Result<E>() {
+            @Override
+            public E now() {
+                return result.now();
+            }
+        };
+    }
+
+    @Override
+    public <E> Map<Key<E>, E> loadAll(Collection<Key<E>> keys) {
+        return reader().load().keys(keys);
+    }
+
+    @Override
+    public Map<Key<?>, Object> loadAll(Key<?>... keys) {
+        Map<Key<Object>, Object> loaded = reader().load().<Object>keys(keys);
+        return new LinkedHashMap<Key<?>, Object>(loaded);
+    }
+
+    @Override
+    public void save(Object... entities) {
+        ofy().save().entities(entities).now();
+    }
+
+    @Override
+    public void delete(Key<?>... keys) {
+        ofy().delete().keys(keys).now();
+    }
+
+    @Override
+    public ConferenceRepository eventuallyConsistent() {
+        return new ObjectifyConferenceRepository(Consistency.EVENTUAL);
+    }
+
+    @Override
+    public Key<Conference> allocateConferenceKey(Key<Profile> organizerKey) {
+        return factory().allocateId(organizerKey, Conference.class);
+    }
+
+    @Override
+    public List<Conference> queryConferences(List<Filter> filters, List<String> orderBy) {
+        Query<Conference> query = reader().load().type(Conference.class);
+        for (String order : orderBy) {
+            query = query.order(order);
+        }
+        for (Filter filter : filters) {
+            String condition = String.format("%s %s", filter.getField().getFieldName(),
+                    filter.getOperator().getQueryOperator());
+            if (filter.getField().getFieldType() == FieldType.INTEGER) {
+                query = query.filter(condition, Integer.parseInt(filter.getValue()));
+            } else {
+                query = query.filter(condition, filter.getValue());
+            }
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(query.toString());
+        }
+        return query.list();
+    }
+
+    @Override
+    public Page<Key<Conference>> getConferenceKeys(String cursor, int limit) {
+        Query<Conference> query = reader().load().type(Conference.class).limit(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+        List<Key<Conference>> keys = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        String next = keys.size() < limit ? null : iterator.getCursor().toWebSafeString();
+        return new Page<>(keys, next);
+    }
+
+    @Override
+    public List<Key<Conference>> getConferenceKeysByTopic(String topic, int limit) {
+        return reader().load().type(Conference.class).filter("topics =", topic).limit(limit)
+                .keys().list();
+    }
+
+    @Override
+    public List<Conference> getConferencesByOrganizer(Key<Profile> organizerKey) {
+        return reader().load().type(Conference.class).ancestor(organizerKey).order("name").list();
+    }
+
+    @Override
+    public List<Conference> getConferencesBySeatsAvailable(String city, int moreThan,
+                                                           int lessThan, int limit) {
+        Query<ConferenceInventory> query = reader().load().type(ConferenceInventory.class)
+                .filter("seatsAvailable >", moreThan)
+                .filter("seatsAvailable <", lessThan)
+                .order("seatsAvailable");
+        if (city != null) {
+            query = query.filter("city =", city);
+        }
+        List<ConferenceInventory> inventories = query.limit(limit).list();
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(inventories.size());
+        for (ConferenceInventory inventory : inventories) {
+            conferenceKeys.add(inventory.getConferenceKey());
+        }
+        Map<Key<Conference>, Conference> conferences = reader().load().keys(conferenceKeys);
+        List<Conference> result = new ArrayList<>(inventories.size());
+        for (ConferenceInventory inventory : inventories) {
+            Conference conference = conferences.get(inventory.getConferenceKey());
+            if (conference != null) {
+                conference.attachInventory(inventory);
+                result.add(conference);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<ArchivedConference> getArchivedConferences(int limit) {
+        return reader().load().type(ArchivedConference.class).order("-endDate").limit(limit).list();
+    }
+
+    @Override
+    public List<Key<Conference>> getConferenceKeysEndedBefore(Date before, int limit) {
+        return reader().load().type(Conference.class).filter("endDate <", before)
+                .order("endDate").limit(limit).keys().list();
+    }
+
+    @Override
+    public List<SeatHoldSlot> getSeatHoldSlotsExpiredBefore(Date before, int limit) {
+        return reader().load().type(SeatHoldSlot.class).filter("expires <", before)
+                .order("expires").limit(limit).list();
+    }
+
+    @Override
+    public List<Key<PendingNotification>> getPendingNotificationKeys(Date before, int limit) {
+        return reader().load().type(PendingNotification.class).filter("created <", before)
+                .order("created").limit(limit).keys().list();
+    }
+
+    @Override
+    public List<PendingNotification> getPendingNotifications(Key<Profile> profileKey) {
+        return reader().load().type(PendingNotification.class).ancestor(profileKey).list();
+    }
+
+    @Override
+    public List<TrendingScore> getTopTrendingScores(int limit) {
+        return reader().load().type(TrendingScore.class).order("-logScore").limit(limit).list();
+    }
+
+    @Override
+    public Page<Attendee> getAttendees(Key<Conference> conferenceKey, String cursor,
+                                       int limit) {
+        Query<Attendee> query = reader().load().type(Attendee.class).ancestor(conferenceKey)
+                .limit(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Attendee> iterator = query.iterator();
+        List<Attendee> attendees = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            attendees.add(iterator.next());
+        }
+        // A full page may be followed by more attendees.
+        String next = attendees.size() < limit ? null : iterator.getCursor().toWebSafeString();
+        return new Page<>(attendees, next);
+    }
+
+    @Override
+    public <E> List<Key<E>> getScatterKeys(Class<E> kind, int limit) {
+        return reader().load().type(kind).order("__scatter__").limit(limit).keys().list();
+    }
+
+    @Override
+    public <E> Page<E> scanRange(Class<E> kind, Key<?> start, Key<?> end, String cursor,
+                                 int limit) {
+        // Without a sort order, a kind query with key filters returns entities in key order.
+        Query<E> query = reader().load().type(kind).limit(limit);
+        if (start != null) {
+            query = query.filterKey(">=", start);
+        }
+        if (end != null) {
+            query = query.filterKey("<", end);
+        }
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<E> iterator = query.iterator();
+        List<E> entities = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            entities.add(iterator.next());
+        }
+        String next = entities.size() < limit ? null : iterator.getCursor().toWebSafeString();
+        return new Page<>(entities, next);
+    }
+
+    @Override
+    public List<JobState> getRecentJobs(int limit) {
+        return reader().load().type(JobState.class).order("-started").limit(limit).list();
+    }
+
+    @Override
+    public <R> R transact(Work<R> work) {
+        return ofy().transactNew(1, work);
+    }
+
+    @Override
+    public void addTask(Queue queue, TaskOptions task) {
+        queue.add(ofy().getTransaction(), task);
+    }
+
+    /**
+     * Returns the Objectify instance for reads, with this repository's consistency.
+     */
+    private Objectify reader() {
+        return ofy().consistency(consistency);
+    }
+}
@@ -1,7 +1,18 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Attendee;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.PendingNotification;
+import com.google.devrel.training.conference.domain.JobOutput;
+import com.google.devrel.training.conference.domain.JobShard;
+import com.google.devrel.training.conference.domain.JobState;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.SimilarConferences;
+import com.google.devrel.training.conference.domain.TrendingScore;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -16,6 +27,17 @@ public class OfyService {
     static {
         factory().register(Profile.class);
         factory().register(Conference.class);
+        factory().register(ArchivedConference.class);
+        factory().register(ConferenceInventory.class);
+        factory().register(SeatHoldSlot.class);
+        factory().register(Attendee.class);
+        factory().register(SimilarConferences.class);
+        factory().register(TrendingScore.class);
+        factory().register(JobState.class);
+        factory().register(JobShard.class);
+        factory().register(JobOutput.class);
+        factory().register(IdempotencyRecord.class);
+        factory().register(PendingNotification.class);
     }
 
     /**
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * One page of a query result, with the cursor the next page starts at.
+ */
+public class Page<T> {
+
+    private final List<T> items;
+
+    private final String cursor;
+
+    public Page(List<T> items, String cursor) {
+        this.items = ImmutableList.copyOf(items);
+        this.cursor = cursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the websafe cursor of the next page.
+     *
+     * @return the cursor, or null when this is the last page.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+}
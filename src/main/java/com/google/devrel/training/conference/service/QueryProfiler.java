@@ -0,0 +1,206 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Profiles Conference queries by shape.
+ *
+ * The shape of a query is its filtered fields and operators plus its sort order, with the
+ * values left out, e.g. "CITY EQ, MAX_ATTENDEES GT | maxAttendees, name". Per shape this
+ * keeps latency and result size histograms for the instance, read through QueryShapesServlet.
+ * A sample of the queries slower than conference.query.slowMillis is logged in full, values
+ * included.
+ */
+public class QueryProfiler {
+
+    private static final Logger LOG = Logger.getLogger(QueryProfiler.class.getName());
+
+    /**
+     * Upper bounds of the latency buckets in milliseconds; the last bucket is unbounded.
+     */
+    public static final long[] LATENCY_BOUNDS = {10, 20, 50, 100, 200, 500, 1000, 2000};
+
+    /**
+     * Upper bounds of the result size buckets; the last bucket is unbounded.
+     */
+    public static final long[] RESULT_SIZE_BOUNDS = {0, 10, 100, 1000};
+
+    private static final long SLOW_MILLIS = Long.getLong("conference.query.slowMillis", 500L);
+
+    /**
+     * The fraction of slow queries logged in full.
+     */
+    private static final double SLOW_SAMPLE_RATE = Double.parseDouble(
+            System.getProperty("conference.query.slowSampleRate", "0.1"));
+
+    /**
+     * The most shapes tracked; further shapes are counted under OTHER_SHAPE.
+     */
+    private static final int MAX_SHAPES = 500;
+
+    private static final String OTHER_SHAPE = "(other)";
+
+    private static final ConcurrentMap<String, ShapeStats> SHAPES = new ConcurrentHashMap<>();
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * The statistics of one query shape.
+     */
+    public static class ShapeStats {
+
+        private final String shape;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalMillis = new AtomicLong();
+
+        private final AtomicLong totalResults = new AtomicLong();
+
+        private final AtomicLongArray latencyBuckets =
+                new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+
+        private final AtomicLongArray resultSizeBuckets =
+                new AtomicLongArray(RESULT_SIZE_BOUNDS.length + 1);
+
+        ShapeStats(String shape) {
+            this.shape = shape;
+        }
+
+        void record(long millis, int results) {
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            totalResults.addAndGet(results);
+            latencyBuckets.incrementAndGet(bucketOf(LATENCY_BOUNDS, millis));
+            resultSizeBuckets.incrementAndGet(bucketOf(RESULT_SIZE_BOUNDS, results));
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getTotalResults() {
+            return totalResults.get();
+        }
+
+        /**
+         * Returns the number of queries per latency bucket, see LATENCY_BOUNDS.
+         */
+        public long[] getLatencyHistogram() {
+            return toArray(latencyBuckets);
+        }
+
+        /**
+         * Returns the number of queries per result size bucket, see RESULT_SIZE_BOUNDS.
+         */
+        public long[] getResultSizeHistogram() {
+            return toArray(resultSizeBuckets);
+        }
+    }
+
+    /**
+     * Returns the shape of a query.
+     *
+     * @param filters the filters, as in ConferenceQueryForm.
+     * @param orderBy the properties sorted by.
+     * @return the shape, the same for queries differing only in filter values or order.
+     */
+    public static String shapeOf(List<Filter> filters, List<String> orderBy) {
+        List<String> parts = new ArrayList<>(filters.size());
+        for (Filter filter : filters) {
+            parts.add(filter.getField() + " " + filter.getOperator());
+        }
+        Collections.sort(parts);
+        return (parts.isEmpty() ? "(no filters)" : Joiner.on(", ").join(parts))
+                + " | " + Joiner.on(", ").join(orderBy);
+    }
+
+    /**
+     * Records one query.
+     *
+     * @param filters the filters of the query.
+     * @param orderBy the properties sorted by.
+     * @param millis the time the query took.
+     * @param results the number of conferences returned.
+     */
+    public static void record(List<Filter> filters, List<String> orderBy, long millis,
+                              int results) {
+        String shape = shapeOf(filters, orderBy);
+        ShapeStats stats = SHAPES.get(shape);
+        if (stats == null) {
+            if (SHAPES.size() >= MAX_SHAPES) {
+                shape = OTHER_SHAPE;
+            }
+            ShapeStats created = new ShapeStats(shape);
+            stats = SHAPES.putIfAbsent(shape, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.record(millis, results);
+
+        if (millis >= SLOW_MILLIS && RANDOM.nextDouble() < SLOW_SAMPLE_RATE) {
+            List<String> parameters = new ArrayList<>(filters.size());
+            for (Filter filter : filters) {
+                parameters.add(filter.getField() + " " + filter.getOperator() + " "
+                        + filter.getValue());
+            }
+            LOG.warning(String.format("Slow query, %d ms, %d results: %s | %s", millis, results,
+                    Joiner.on(", ").join(parameters), Joiner.on(", ").join(orderBy)));
+        }
+    }
+
+    /**
+     * Returns the shapes with the highest total time, the costliest first.
+     *
+     * @param limit the most shapes to return.
+     * @return the ShapeStats.
+     */
+    public static List<ShapeStats> topShapes(int limit) {
+        List<ShapeStats> shapes = new ArrayList<>(SHAPES.values());
+        Collections.sort(shapes, new Comparator<ShapeStats>() {
+            @Override
+            public int compare(ShapeStats a, ShapeStats b) {
+                return Long.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+        return shapes.size() > limit ? new ArrayList<>(shapes.subList(0, limit)) : shapes;
+    }
+
+    private static int bucketOf(long[] bounds, long value) {
+        for (int i = 0; i < bounds.length; i++) {
+            if (value <= bounds[i]) {
+                return i;
+            }
+        }
+        return bounds.length;
+    }
+
+    private static long[] toArray(AtomicLongArray buckets) {
+        long[] values = new long[buckets.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buckets.get(i);
+        }
+        return values;
+    }
+}
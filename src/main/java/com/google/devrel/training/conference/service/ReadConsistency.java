@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * How the reads of an API call may trade freshness for latency, see ReadPolicy.
+ */
+public enum ReadConsistency {
+
+    /**
+     * Reads see every committed write. The default, and what transactions always use.
+     */
+    STRONG,
+
+    /**
+     * Gets and ancestor queries may miss writes of the last moments, and don't wait for
+     * pending writes to be applied.
+     */
+    EVENTUAL,
+
+    /**
+     * Gets are served from the instance's EntityCache, up to
+     * conference.readCache.ttlMillis old; misses fall back to eventually consistent reads.
+     */
+    CACHE_ONLY_WITH_FALLBACK
+}
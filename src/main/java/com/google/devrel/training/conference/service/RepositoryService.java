@@ -0,0 +1,81 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.logging.Logger;
+
+/**
+ * Holds the ConferenceRepository engine this application should use.
+ *
+ * The engine is chosen with the conference.repository system property: "objectify" (the
+ * default) for the datastore, or "memory" for InMemoryConferenceRepository.
+ *
+ * While a request has an EntitySession open, repository() returns the session, which
+ * deduplicates loads and counts the RPCs of the request.
+ */
+public class RepositoryService {
+
+    private static final Logger LOG = Logger.getLogger(RepositoryService.class.getName());
+
+    private static volatile ConferenceRepository repository =
+            create(System.getProperty("conference.repository", "objectify"));
+
+    /**
+     * The session of the request running on this thread, null outside requests.
+     */
+    private static final ThreadLocal<EntitySession> SESSION = new ThreadLocal<>();
+
+    /**
+     * Use this static method for getting the repository, like OfyService.ofy().
+     * @return the EntitySession of the current request, or the configured
+     *         ConferenceRepository when there is none.
+     */
+    public static ConferenceRepository repository() {
+        EntitySession session = SESSION.get();
+        return session != null ? session : repository;
+    }
+
+    /**
+     * Opens an EntitySession with strongly consistent reads for the current thread, e.g. for
+     * a request or a test.
+     * @return the new session.
+     */
+    public static EntitySession openSession() {
+        return openSession(ReadConsistency.STRONG);
+    }
+
+    /**
+     * Opens an EntitySession for the current thread.
+     * @param consistency the consistency of the session's reads outside transactions.
+     * @return the new session.
+     */
+    public static EntitySession openSession(ReadConsistency consistency) {
+        EntitySession session = new EntitySession(repository, consistency);
+        SESSION.set(session);
+        return session;
+    }
+
+    /**
+     * Closes the EntitySession of the current thread.
+     * @return the closed session, or null when none was open.
+     */
+    public static EntitySession closeSession() {
+        EntitySession session = SESSION.get();
+        SESSION.remove();
+        return session;
+    }
+
+    /**
+     * Replaces the repository, e.g. with a fresh in-memory one between benchmark runs.
+     * @param newRepository the ConferenceRepository to use from now on.
+     */
+    public static void setRepository(ConferenceRepository newRepository) {
+        repository = newRepository;
+    }
+
+    private static ConferenceRepository create(String engine) {
+        if ("memory".equals(engine)) {
+            LOG.warning("Using the in-memory repository; nothing will be persisted");
+            return new InMemoryConferenceRepository();
+        }
+        return new ObjectifyConferenceRepository();
+    }
+}
@@ -0,0 +1,37 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * Per-endpoint response size and cost, kept in Metrics.
+ *
+ * For each API method, ResponseStatsFilter records
+ * api.METHOD.VARIANT.bytes, .megacycles, .count and .totalMillis, where VARIANT is "select"
+ * when the call selected properties with a select parameter and "full" otherwise. Comparing
+ * the two variants of a method shows what the field selection saves.
+ */
+public class ResponseStats {
+
+    private static final ThreadLocal<Boolean> SELECTED = new ThreadLocal<>();
+
+    /**
+     * Notes that the current call returns only selected properties.
+     */
+    public static void propertiesSelected() {
+        SELECTED.set(Boolean.TRUE);
+    }
+
+    /**
+     * Records a finished call and resets the state of the current thread.
+     *
+     * @param method the API method name.
+     * @param bytes the size of the serialized response.
+     * @param millis the time spent on the call, serialization included.
+     * @param megacycles the CPU spent on the call, or 0 when it can't be measured.
+     */
+    public static void record(String method, long bytes, long millis, long megacycles) {
+        String name = "api." + method + (SELECTED.get() == null ? ".full" : ".select");
+        SELECTED.remove();
+        Metrics.add(name + ".bytes", bytes);
+        Metrics.add(name + ".megacycles", megacycles);
+        Metrics.recordLatency(name, millis);
+    }
+}
@@ -0,0 +1,432 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.SeatHoldSlot.State;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Time-limited seat holds, served from a per-Conference pool of SeatHoldSlots.
+ *
+ * The first hold on a Conference moves up to POOL_SIZE seats from its ConferenceInventory
+ * into the pool. After that a hold is a transaction on one random free slot, each slot being
+ * its own entity group, so concurrent users mostly land on different slots instead of all
+ * rewriting the inventory. Seats are never oversold: a slot's seat left the inventory when
+ * the slot was created.
+ *
+ * Expired holds are freed, confirmed slots are refilled from the inventory, and the seats of
+ * idle free slots go back to the inventory, by sweep(), which the sweeper cron runs every
+ * minute. A slot deleted that way, or because the inventory ran out when refilling it, is
+ * recreated from the inventory by the next hold finding no free slot.
+ *
+ * The Attendee of a confirmed hold is written by a task added in the confirming transaction,
+ * so the confirmation never writes to the entity group of the Conference.
+ */
+public class SeatHolds {
+
+    /**
+     * How long a hold lasts.
+     */
+    private static final int HOLD_SECONDS = Integer.getInteger("conference.seatHold.seconds", 300);
+
+    /**
+     * The number of slots per Conference. A pool is allocated in one cross-group transaction,
+     * which may span at most 25 entity groups, the inventory's included.
+     */
+    private static final int POOL_SIZE =
+            Math.min(Integer.getInteger("conference.seatHold.poolSize", 10), 24);
+
+    /**
+     * Free slots tried by one hold before giving up.
+     */
+    private static final int MAX_CLAIMS = 3;
+
+    private static final int SWEEP_BATCH = 500;
+
+    private static final String ATTENDEE_TASK_URL = "/tasks/save_attendee";
+
+    private static final TransactionRunner TRANSACTION_RUNNER = new TransactionRunner();
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Holds a seat of a Conference for a user. A user with a live hold on the Conference
+     * gets that hold back.
+     *
+     * @param userId the userId of the user.
+     * @param conferenceKey the Conference key.
+     * @return the SeatHold, or null when no seat can be held.
+     */
+    public static SeatHold hold(String userId, Key<Conference> conferenceKey) {
+        ConferenceInventory inventory =
+                repository().load(ConferenceInventory.keyOf(conferenceKey));
+        int poolSize = inventory == null ? 0 : inventory.getHoldPoolSize();
+        if (poolSize == 0) {
+            poolSize = allocatePool(conferenceKey);
+        }
+
+        List<Key<SeatHoldSlot>> slotKeys = new ArrayList<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            slotKeys.add(SeatHoldSlot.keyOf(conferenceKey, i));
+        }
+        Date now = new Date();
+        List<SeatHoldSlot> available = new ArrayList<>();
+        List<SeatHoldSlot> confirmed = new ArrayList<>();
+        Map<Key<SeatHoldSlot>, SeatHoldSlot> slots = repository().loadAll(slotKeys);
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < poolSize; i++) {
+            if (!slots.containsKey(slotKeys.get(i))) {
+                missing.add(i);
+            }
+        }
+        for (SeatHoldSlot slot : slots.values()) {
+            if (slot.getState() == State.HELD && userId.equals(slot.getUserId())
+                    && slot.getExpires().after(now)) {
+                return new SeatHold(conferenceKey.getString(), slot.getToken(),
+                        slot.getExpires());
+            } else if (slot.isAvailable(now)) {
+                available.add(slot);
+            } else if (slot.getState() == State.CONFIRMED) {
+                confirmed.add(slot);
+            }
+        }
+
+        // Spread concurrent users over the free slots.
+        Collections.shuffle(available, RANDOM);
+        for (SeatHoldSlot slot : available.subList(0, Math.min(available.size(), MAX_CLAIMS))) {
+            SeatHold hold = claim(slot.getIndex(), userId, conferenceKey);
+            if (hold != null) {
+                return hold;
+            }
+        }
+        // No free slot: refill a sold one from the inventory on the spot.
+        for (SeatHoldSlot slot : confirmed) {
+            if (refill(SeatHoldSlot.keyOf(conferenceKey, slot.getIndex()))) {
+                Metrics.increment("seatHolds.inlineRefills");
+                return claim(slot.getIndex(), userId, conferenceKey);
+            }
+        }
+        // Slots whose seats went back to the inventory: take one out again.
+        if (!missing.isEmpty()) {
+            Integer index = recreateSlot(conferenceKey, missing);
+            if (index != null) {
+                Metrics.increment("seatHolds.recreated");
+                return claim(index, userId, conferenceKey);
+            }
+        }
+        Metrics.increment("seatHolds.exhausted");
+        return null;
+    }
+
+    /**
+     * Returns the SeatHoldSlot key of a hold token.
+     *
+     * @param conferenceKey the Conference key.
+     * @param token the token of the hold.
+     * @return the key, or null when the token isn't one handed out by hold().
+     */
+    public static Key<SeatHoldSlot> slotKeyOf(Key<Conference> conferenceKey, String token) {
+        int separator = token.indexOf('-');
+        try {
+            return separator < 0 ? null : SeatHoldSlot.keyOf(conferenceKey,
+                    Integer.parseInt(token.substring(0, separator)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gives up a hold before it expires.
+     *
+     * @param userId the userId of the holder.
+     * @param conferenceKey the Conference key.
+     * @param token the token of the hold.
+     * @return true when the hold was released, false when it wasn't live.
+     */
+    public static boolean release(final String userId, Key<Conference> conferenceKey,
+                                  final String token) {
+        final Key<SeatHoldSlot> slotKey = slotKeyOf(conferenceKey, token);
+        if (slotKey == null) {
+            return false;
+        }
+        return TRANSACTION_RUNNER.run(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                SeatHoldSlot slot = repository().load(slotKey);
+                if (slot == null || !slot.isHeldBy(userId, token, new Date())) {
+                    return false;
+                }
+                slot.free();
+                repository().save(slot);
+                return true;
+            }
+        }, "seatHolds.release");
+    }
+
+    /**
+     * Frees expired holds, refills confirmed slots from the inventory and gives the seats of
+     * idle free slots back to it.
+     *
+     * @return the number of slots handled.
+     */
+    public static int sweep() {
+        List<SeatHoldSlot> slots =
+                repository().getSeatHoldSlotsExpiredBefore(new Date(), SWEEP_BATCH);
+        for (SeatHoldSlot slot : slots) {
+            final Key<SeatHoldSlot> slotKey =
+                    SeatHoldSlot.keyOf(slot.getConferenceKey(), slot.getIndex());
+            if (slot.getState() == State.CONFIRMED) {
+                refill(slotKey);
+                continue;
+            }
+            if (slot.getState() == State.FREE) {
+                giveBack(slotKey);
+                continue;
+            }
+            boolean freed = TRANSACTION_RUNNER.run(new Work<Boolean>() {
+                @Override
+                public Boolean run() {
+                    SeatHoldSlot current = repository().load(slotKey);
+                    if (current == null || current.getState() != State.HELD
+                            || !current.isAvailable(new Date())) {
+                        return false;
+                    }
+                    current.free();
+                    repository().save(current);
+                    return true;
+                }
+            }, "seatHolds.sweep");
+            if (freed) {
+                Metrics.increment("seatHolds.expired");
+            }
+        }
+        return slots.size();
+    }
+
+    /**
+     * Adds, in the current transaction, the task saving the Attendee of a confirmed hold.
+     *
+     * @param conferenceKey the Conference key.
+     * @param userId the userId of the attendee.
+     */
+    public static void addAttendeeTask(Key<Conference> conferenceKey, String userId) {
+        repository().addTask(QueueFactory.getDefaultQueue(),
+                TaskOptions.Builder.withUrl(ATTENDEE_TASK_URL)
+                        .param("websafeConferenceKey", conferenceKey.getString())
+                        .param("userId", userId));
+    }
+
+    /**
+     * Saves the Attendee of a confirmed hold, or of a registration AttendeeBackfillJob found,
+     * unless the user has unregistered since or it was saved already, so it can safely run
+     * again.
+     *
+     * @param conferenceKey the Conference key.
+     * @param userId the userId of the attendee.
+     */
+    public static void saveAttendee(final Key<Conference> conferenceKey, final String userId) {
+        final Key<Attendee> attendeeKey = Attendee.keyOf(conferenceKey, userId);
+        TRANSACTION_RUNNER.run(new Work<Void>() {
+            @Override
+            public Void run() {
+                Result<Attendee> attendeeLoad = repository().loadAsync(attendeeKey);
+                Result<Profile> profileLoad =
+                        repository().loadAsync(Key.create(Profile.class, userId));
+                Profile profile = profileLoad.now();
+                if (attendeeLoad.now() == null && profile != null && profile
+                        .getConferenceKeysToAttend().contains(conferenceKey.getString())) {
+                    repository().save(new Attendee(conferenceKey, userId));
+                }
+                return null;
+            }
+        }, "seatHolds.saveAttendee");
+    }
+
+    /**
+     * Deletes an idle free slot and gives its seat back to the inventory.
+     */
+    private static void giveBack(final Key<SeatHoldSlot> slotKey) {
+        Key<Conference> conferenceKey = TRANSACTION_RUNNER.run(new Work<Key<Conference>>() {
+            @Override
+            public Key<Conference> run() {
+                SeatHoldSlot slot = repository().load(slotKey);
+                if (slot == null || !slot.isIdle(new Date())) {
+                    return null;
+                }
+                ConferenceInventory inventory =
+                        repository().load(ConferenceInventory.keyOf(slot.getConferenceKey()));
+                if (inventory != null) {
+                    inventory.giveBackSeats(1);
+                    repository().save(inventory);
+                }
+                repository().delete(slotKey);
+                return slot.getConferenceKey();
+            }
+        }, "seatHolds.giveBack");
+        if (conferenceKey != null) {
+            SeatInventory.invalidate(conferenceKey.getString());
+            ChangeFeed.publishSeats(conferenceKey.getString());
+            Metrics.increment("seatHolds.givenBack");
+        }
+    }
+
+    /**
+     * Takes a seat out of the inventory again for one of the slots that were deleted.
+     *
+     * @param conferenceKey the Conference key.
+     * @param missing the indices of the slots found missing.
+     * @return the index of the recreated slot, or null when there is no seat left or the
+     *         slots were recreated meanwhile.
+     */
+    private static Integer recreateSlot(final Key<Conference> conferenceKey,
+                                        final List<Integer> missing) {
+        final Key<ConferenceInventory> inventoryKey = ConferenceInventory.keyOf(conferenceKey);
+        final int index = missing.get(RANDOM.nextInt(missing.size()));
+        final Key<SeatHoldSlot> slotKey = SeatHoldSlot.keyOf(conferenceKey, index);
+        boolean recreated = TRANSACTION_RUNNER.run(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                Result<ConferenceInventory> inventoryLoad = repository().loadAsync(inventoryKey);
+                Result<SeatHoldSlot> slotLoad = repository().loadAsync(slotKey);
+                ConferenceInventory inventory = inventoryLoad.now();
+                if (inventory == null || inventory.getSeatsAvailable() == 0
+                        || slotLoad.now() != null) {
+                    return false;
+                }
+                inventory.bookSeats(1);
+                repository().save(inventory, new SeatHoldSlot(conferenceKey, index));
+                return true;
+            }
+        }, "seatHolds.recreateSlot");
+        if (!recreated) {
+            return null;
+        }
+        SeatInventory.invalidate(conferenceKey.getString());
+        ChangeFeed.publishSeats(conferenceKey.getString());
+        return index;
+    }
+
+    /**
+     * Moves seats from the inventory of a Conference into a new hold pool.
+     *
+     * @return the size of the pool, 0 when there is no Conference or no seat left.
+     */
+    private static int allocatePool(final Key<Conference> conferenceKey) {
+        final Key<ConferenceInventory> inventoryKey = ConferenceInventory.keyOf(conferenceKey);
+        int size = TRANSACTION_RUNNER.run(new Work<Integer>() {
+            @Override
+            public Integer run() {
+                ConferenceInventory inventory = repository().load(inventoryKey);
+                if (inventory == null) {
+                    // A Conference created before inventories were split out has none yet.
+                    Conference conference = repository().load(conferenceKey);
+                    if (conference == null) {
+                        return 0;
+                    }
+                    inventory = conference.getInventory();
+                }
+                if (inventory.getHoldPoolSize() > 0) {
+                    // Allocated by a concurrent hold.
+                    return inventory.getHoldPoolSize();
+                }
+                int size = Math.min(POOL_SIZE, inventory.getSeatsAvailable());
+                if (size == 0) {
+                    return 0;
+                }
+                inventory.allocateHoldPool(size);
+                List<Object> entities = new ArrayList<>(size + 1);
+                entities.add(inventory);
+                for (int i = 0; i < size; i++) {
+                    entities.add(new SeatHoldSlot(conferenceKey, i));
+                }
+                repository().save(entities.toArray());
+                return size;
+            }
+        }, "seatHolds.allocatePool");
+        SeatInventory.invalidate(conferenceKey.getString());
+        ChangeFeed.publishSeats(conferenceKey.getString());
+        return size;
+    }
+
+    /**
+     * Holds a slot if it is still available.
+     *
+     * @return the SeatHold, or null when another user got the slot first.
+     */
+    private static SeatHold claim(int index, final String userId,
+                                  final Key<Conference> conferenceKey) {
+        final Key<SeatHoldSlot> slotKey = SeatHoldSlot.keyOf(conferenceKey, index);
+        final String token = index + "-" + UUID.randomUUID();
+        SeatHold hold = TRANSACTION_RUNNER.run(new Work<SeatHold>() {
+            @Override
+            public SeatHold run() {
+                SeatHoldSlot slot = repository().load(slotKey);
+                Date now = new Date();
+                if (slot == null || !slot.isAvailable(now)) {
+                    return null;
+                }
+                Date expires = new Date(now.getTime() + HOLD_SECONDS * 1000L);
+                slot.hold(userId, token, expires);
+                repository().save(slot);
+                return new SeatHold(conferenceKey.getString(), token, expires);
+            }
+        }, "seatHolds.claim");
+        Metrics.increment(hold == null ? "seatHolds.lostClaims" : "seatHolds.held");
+        return hold;
+    }
+
+    /**
+     * Refills a confirmed slot with a seat from the inventory, or deletes it when the
+     * inventory has no seat left.
+     *
+     * @return true when the slot is free again.
+     */
+    private static boolean refill(final Key<SeatHoldSlot> slotKey) {
+        Boolean refilled = TRANSACTION_RUNNER.run(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                SeatHoldSlot slot = repository().load(slotKey);
+                if (slot == null || slot.getState() != State.CONFIRMED) {
+                    return null;
+                }
+                ConferenceInventory inventory =
+                        repository().load(ConferenceInventory.keyOf(slot.getConferenceKey()));
+                if (inventory == null || inventory.getSeatsAvailable() == 0) {
+                    repository().delete(slotKey);
+                    return false;
+                }
+                inventory.bookSeats(1);
+                slot.free();
+                repository().save(slot, inventory);
+                return true;
+            }
+        }, "seatHolds.refill");
+        if (refilled == null) {
+            return false;
+        }
+        String websafeConferenceKey = slotKey.getName().substring(0,
+                slotKey.getName().lastIndexOf('/'));
+        SeatInventory.invalidate(websafeConferenceKey);
+        ChangeFeed.publishSeats(websafeConferenceKey);
+        Metrics.increment(refilled ? "seatHolds.refilled" : "seatHolds.retired");
+        return refilled;
+    }
+}
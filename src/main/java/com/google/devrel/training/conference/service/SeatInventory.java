@@ -0,0 +1,199 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.SeatAvailability;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * A compact in-memory snapshot of seat inventory, keyed by websafe Conference key.
+ *
+ * Entries live for a few seconds, so inventory changed on other instances shows up quickly.
+ * All misses of a lookup are loaded with one batched get.
+ *
+ * Since each instance holds its own snapshot, a lookup may return an entry that is older than
+ * versions other instances already handed out. A Lookup therefore reports the newest version
+ * a poller can safely resume from, capped at the load time of its oldest entry.
+ */
+public class SeatInventory {
+
+    /**
+     * How long a snapshot entry is served before it is reloaded.
+     */
+    private static final long TTL_MILLIS =
+            Long.getLong("conference.seatInventory.ttlMillis", 5000L);
+
+    /**
+     * How far the clocks that stamp seatsVersion may lag behind a snapshot load, including the
+     * time between stamping a version and committing it.
+     */
+    private static final long VERSION_SKEW_MILLIS =
+            Long.getLong("conference.seatInventory.versionSkewMillis", 2000L);
+
+    private static final ConcurrentMap<String, Entry> SNAPSHOT = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private final SeatAvailability availability;
+        private final long loadedAt;
+        private final long expiresAt;
+
+        private Entry(SeatAvailability availability, long loadedAt) {
+            this.availability = availability;
+            this.loadedAt = loadedAt;
+            this.expiresAt = loadedAt + TTL_MILLIS;
+        }
+    }
+
+    /**
+     * The result of a lookup: the inventories found and the version to poll from next.
+     */
+    public static class Lookup {
+        private final Map<String, SeatAvailability> availabilities;
+        private final long oldestLoadedAt;
+
+        private Lookup(Map<String, SeatAvailability> availabilities, long oldestLoadedAt) {
+            this.availabilities = availabilities;
+            this.oldestLoadedAt = oldestLoadedAt;
+        }
+
+        /**
+         * @return websafe key to inventory, in request order.
+         */
+        public Map<String, SeatAvailability> getAvailabilities() {
+            return availabilities;
+        }
+
+        /**
+         * Returns the version a client should pass back on its next poll.
+         *
+         * A change committed after the oldest entry was loaded may carry a version lower than
+         * the highest version seen here, so the highest version is capped at that load time.
+         * The client may see an unchanged entry twice, but never misses a change.
+         *
+         * @param since the version the client polled from, or Long.MIN_VALUE.
+         * @return the version to poll from next, never lower than since.
+         */
+        public long nextVersion(long since) {
+            long highest = 0;
+            for (SeatAvailability availability : availabilities.values()) {
+                highest = Math.max(highest, availability.getVersion());
+            }
+            return Math.max(since, Math.min(highest, oldestLoadedAt - VERSION_SKEW_MILLIS));
+        }
+    }
+
+    /**
+     * Returns the seat inventory of the given conferences.
+     *
+     * @param websafeConferenceKeys the websafe keys of the conferences.
+     * @return websafe key to inventory, in request order. Keys that don't parse or have no
+     *         Conference are left out.
+     */
+    public static Map<String, SeatAvailability> get(Collection<String> websafeConferenceKeys) {
+        return lookup(websafeConferenceKeys).getAvailabilities();
+    }
+
+    /**
+     * Returns the seat inventory of the given conferences with the version to poll from next.
+     *
+     * @param websafeConferenceKeys the websafe keys of the conferences.
+     * @return the lookup; keys that don't parse or have no Conference are left out.
+     */
+    public static Lookup lookup(Collection<String> websafeConferenceKeys) {
+        long now = System.currentTimeMillis();
+        long oldestLoadedAt = now;
+        Map<String, SeatAvailability> result = new LinkedHashMap<>();
+        List<Key<ConferenceInventory>> missing = new ArrayList<>();
+        for (String websafeKey : websafeConferenceKeys) {
+            Entry entry = SNAPSHOT.get(websafeKey);
+            if (entry != null && entry.expiresAt > now) {
+                result.put(websafeKey, entry.availability);
+                oldestLoadedAt = Math.min(oldestLoadedAt, entry.loadedAt);
+                continue;
+            }
+            // Keep the request order; the value is filled in after the batched load.
+            result.put(websafeKey, null);
+            try {
+                missing.add(ConferenceInventory.keyOf(Key.<Conference>create(websafeKey)));
+            } catch (RuntimeException e) {
+                // Not a valid key, it is left out.
+            }
+        }
+
+        Metrics.add("seatInventory.hit", websafeConferenceKeys.size() - missing.size());
+        if (!missing.isEmpty()) {
+            Metrics.add("seatInventory.miss", missing.size());
+            Map<Key<ConferenceInventory>, ConferenceInventory> inventories =
+                    repository().loadAll(missing);
+            List<Key<Conference>> legacy = new ArrayList<>();
+            for (Key<ConferenceInventory> key : missing) {
+                ConferenceInventory inventory = inventories.get(key);
+                if (inventory != null) {
+                    SeatAvailability availability = put(inventory);
+                    result.put(availability.getWebsafeConferenceKey(), availability);
+                } else {
+                    legacy.add(key.<Conference>getParent());
+                }
+            }
+            // Conferences created before inventories were split out, or that don't exist.
+            if (!legacy.isEmpty()) {
+                for (Conference conference : repository().loadAll(legacy).values()) {
+                    SeatAvailability availability = put(conference);
+                    result.put(availability.getWebsafeConferenceKey(), availability);
+                }
+            }
+        }
+
+        Map<String, SeatAvailability> found = new LinkedHashMap<>();
+        for (Map.Entry<String, SeatAvailability> entry : result.entrySet()) {
+            if (entry.getValue() != null) {
+                found.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new Lookup(found, oldestLoadedAt);
+    }
+
+    /**
+     * Puts the current inventory of a Conference in the snapshot.
+     *
+     * @param conference a Conference just loaded or saved.
+     * @return the inventory entry.
+     */
+    public static SeatAvailability put(Conference conference) {
+        return put(conference.getInventory());
+    }
+
+    /**
+     * Puts an inventory in the snapshot.
+     *
+     * @param inventory a ConferenceInventory just loaded or saved.
+     * @return the inventory entry.
+     */
+    public static SeatAvailability put(ConferenceInventory inventory) {
+        SeatAvailability availability = new SeatAvailability(
+                inventory.getWebsafeConferenceKey(), inventory.getSeatsAvailable(),
+                inventory.getSeatsVersion());
+        SNAPSHOT.put(availability.getWebsafeConferenceKey(),
+                new Entry(availability, System.currentTimeMillis()));
+        return availability;
+    }
+
+    /**
+     * Drops a Conference from the snapshot, so the next lookup reloads it.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void invalidate(String websafeConferenceKey) {
+        SNAPSHOT.remove(websafeConferenceKey);
+    }
+}
@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.JobShard;
+import com.google.devrel.training.conference.domain.JobState;
+
+import java.util.List;
+
+/**
+ * A background job over every entity of one kind, run by JobService.
+ *
+ * The kind is split into key ranges, one JobShard each, and every shard is worked through in
+ * batches by task queue workers. A batch is run again when its checkpoint doesn't commit, so
+ * processBatch() has to be idempotent.
+ *
+ * @param <E> the entity class scanned.
+ */
+public abstract class ShardedJob<E> {
+
+    private final String name;
+
+    private final Class<E> kind;
+
+    protected ShardedJob(String name, Class<E> kind) {
+        this.name = name;
+        this.kind = kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<E> getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the number of shards used when the caller doesn't ask for one.
+     */
+    public int getDefaultShardCount() {
+        return 8;
+    }
+
+    /**
+     * Returns the number of entities per batch, i.e. between two checkpoints.
+     */
+    public int getBatchSize() {
+        return 100;
+    }
+
+    /**
+     * Processes one batch of a shard.
+     *
+     * @param batch the entities, in key order.
+     * @param shard the shard; lines passed to its emit() are kept with the checkpoint.
+     */
+    public abstract void processBatch(List<E> batch, JobShard shard);
+
+    /**
+     * Runs once every shard is done. It may be retried, so it has to be idempotent too.
+     *
+     * @param job the job.
+     * @param shards all shards of the job; JobService.getOutput() reads what each emitted.
+     */
+    public void finish(JobState job, List<JobShard> shards) {
+    }
+}
@@ -0,0 +1,285 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Attendee;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SimilarConferences;
+import com.googlecode.objectify.Key;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * The batch job computing the SimilarConferences of every Conference.
+ *
+ * A coordinator task pages through the Conference keys and fans each page out to shard tasks
+ * of a few conferences each. A shard computes, for each of its conferences, a score against
+ * every candidate that shares attendees or topics:
+ *
+ *   score = CO_ATTENDANCE_WEIGHT * shared / sqrt(attendees * candidateAttendees)
+ *         + TOPIC_WEIGHT * |shared topics| / |all topics|
+ *
+ * and stores the best TOP_K. Attendees come from the Attendee index, sampled to at most
+ * MAX_ATTENDEES per conference so a shard's work stays bounded.
+ *
+ * Every task is named after the run (the UTC date the cron started it), the page and the
+ * shard, so a retried coordinator or a second cron call on the same day doesn't enqueue the
+ * same work twice.
+ */
+public class SimilarConferencesJob {
+
+    private static final Logger LOG = Logger.getLogger(SimilarConferencesJob.class.getName());
+
+    public static final String QUEUE_NAME = "batch-queue";
+
+    public static final String COORDINATOR_URL = "/tasks/similar_conferences";
+
+    public static final String SHARD_URL = "/tasks/similar_conferences_shard";
+
+    /**
+     * The number of similar conferences stored per Conference.
+     */
+    private static final int TOP_K = Integer.getInteger("conference.similar.topK", 10);
+
+    /**
+     * Conference keys read by one coordinator task before it hands over to the next.
+     */
+    private static final int KEYS_PER_COORDINATOR = 500;
+
+    /**
+     * Conferences computed by one shard task.
+     */
+    private static final int CONFERENCES_PER_SHARD =
+            Integer.getInteger("conference.similar.shardSize", 20);
+
+    /**
+     * The most attendees of a Conference looked at.
+     */
+    private static final int MAX_ATTENDEES = 1000;
+
+    /**
+     * The most conferences per topic taken as candidates.
+     */
+    private static final int MAX_TOPIC_CANDIDATES = 100;
+
+    /**
+     * The most co-attended conferences taken as candidates, the most shared first.
+     */
+    private static final int MAX_CO_ATTENDANCE_CANDIDATES = 200;
+
+    private static final double CO_ATTENDANCE_WEIGHT = 0.7;
+
+    private static final double TOPIC_WEIGHT = 0.3;
+
+    /**
+     * Returns the id of a run started now: the current UTC date.
+     */
+    public static String newRunId() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+
+    /**
+     * Enqueues the shard tasks for one page of conferences, and the coordinator task for the
+     * next page if there is one.
+     *
+     * @param runId the id of the run, see newRunId().
+     * @param pageIndex the index of the page, 0 for the first.
+     * @param cursor the cursor of the page, or null to start from the first Conference.
+     * @return the number of conferences enqueued.
+     */
+    public static int enqueueShards(String runId, int pageIndex, String cursor) {
+        Page<Key<Conference>> page = repository().getConferenceKeys(cursor, KEYS_PER_COORDINATOR);
+        String pageName = "similar-" + runId + "-" + pageIndex;
+        List<TaskOptions> tasks = new ArrayList<>();
+        TaskOptions shard = null;
+        int shardSize = 0;
+        for (Key<Conference> key : page.getItems()) {
+            if (shard == null) {
+                shard = TaskOptions.Builder.withUrl(SHARD_URL)
+                        .taskName(pageName + "-" + tasks.size());
+                shardSize = 0;
+            }
+            shard.param("websafeConferenceKey", key.getString());
+            if (++shardSize == CONFERENCES_PER_SHARD) {
+                tasks.add(shard);
+                shard = null;
+            }
+        }
+        if (shard != null) {
+            tasks.add(shard);
+        }
+        if (page.getCursor() != null) {
+            tasks.add(TaskOptions.Builder.withUrl(COORDINATOR_URL)
+                    .taskName("similar-" + runId + "-" + (pageIndex + 1))
+                    .param("runId", runId)
+                    .param("page", String.valueOf(pageIndex + 1))
+                    .param("cursor", page.getCursor()));
+        }
+        add(QueueFactory.getQueue(QUEUE_NAME), tasks);
+        Metrics.add("similarConferences.enqueued", page.getItems().size());
+        return page.getItems().size();
+    }
+
+    /**
+     * Adds named tasks in batches the task queue accepts, skipping those already added.
+     */
+    private static void add(Queue queue, List<TaskOptions> tasks) {
+        int batchSize = QueueConstants.maxTasksPerAdd();
+        for (int from = 0; from < tasks.size(); from += batchSize) {
+            try {
+                queue.add(tasks.subList(from, Math.min(tasks.size(), from + batchSize)));
+            } catch (TaskAlreadyExistsException e) {
+                // The other tasks of the batch were added; these ones were added before.
+                Metrics.increment("similarConferences.duplicateTasks");
+                LOG.info("Already enqueued: " + e.getTaskNames());
+            }
+        }
+    }
+
+    /**
+     * Computes and saves the SimilarConferences of a Conference.
+     *
+     * @param conferenceKey the Conference key.
+     */
+    public static void computeAndSave(Key<Conference> conferenceKey) {
+        Conference conference = repository().load(conferenceKey);
+        if (conference == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        repository().save(compute(conference));
+        Metrics.recordLatency("similarConferences.compute", System.currentTimeMillis() - start);
+    }
+
+    private static SimilarConferences compute(Conference conference) {
+        Key<Conference> conferenceKey = conference.getKey();
+        String websafeKey = conference.getWebsafeKey();
+
+        // Co-attendance, from the conferences the attendees also registered for.
+        List<Attendee> attendees =
+                repository().getAttendees(conferenceKey, null, MAX_ATTENDEES).getItems();
+        List<Key<Profile>> profileKeys = new ArrayList<>(attendees.size());
+        for (Attendee attendee : attendees) {
+            profileKeys.add(Key.create(Profile.class, attendee.getUserId()));
+        }
+        final Map<String, Integer> shared = new HashMap<>();
+        for (Profile profile : repository().loadAll(profileKeys).values()) {
+            for (String other : profile.getConferenceKeysToAttend()) {
+                if (!other.equals(websafeKey)) {
+                    Integer count = shared.get(other);
+                    shared.put(other, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        List<String> coAttended = new ArrayList<>(shared.keySet());
+        Collections.sort(coAttended, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(shared.get(b), shared.get(a));
+            }
+        });
+
+        // Candidates: the most co-attended conferences plus conferences on the same topics.
+        Set<Key<Conference>> candidates = new HashSet<>();
+        for (String other : coAttended.subList(0,
+                Math.min(coAttended.size(), MAX_CO_ATTENDANCE_CANDIDATES))) {
+            candidates.add(Key.<Conference>create(other));
+        }
+        List<String> topics = realTopics(conference.getTopics());
+        for (String topic : topics) {
+            candidates.addAll(repository().getConferenceKeysByTopic(topic, MAX_TOPIC_CANDIDATES));
+        }
+        candidates.remove(conferenceKey);
+
+        List<Key<ConferenceInventory>> inventoryKeys = new ArrayList<>(candidates.size());
+        for (Key<Conference> candidate : candidates) {
+            inventoryKeys.add(ConferenceInventory.keyOf(candidate));
+        }
+        Map<Key<Conference>, Conference> conferences = repository().loadAll(candidates);
+        Map<Key<ConferenceInventory>, ConferenceInventory> inventories =
+                repository().loadAll(inventoryKeys);
+
+        final Map<Conference, Double> scores = new HashMap<>();
+        for (Conference candidate : conferences.values()) {
+            ConferenceInventory inventory =
+                    inventories.get(ConferenceInventory.keyOf(candidate.getKey()));
+            if (inventory != null) {
+                candidate.attachInventory(inventory);
+            }
+            Integer count = shared.get(candidate.getWebsafeKey());
+            double coAttendance = 0;
+            if (count != null) {
+                int candidateAttendees = Math.max(count,
+                        candidate.getMaxAttendees() - candidate.getSeatsAvailable());
+                coAttendance = count / Math.sqrt((double) attendees.size() * candidateAttendees);
+            }
+            double score = CO_ATTENDANCE_WEIGHT * coAttendance
+                    + TOPIC_WEIGHT * topicOverlap(topics, realTopics(candidate.getTopics()));
+            if (score > 0) {
+                scores.put(candidate, score);
+            }
+        }
+
+        List<Conference> ranked = new ArrayList<>(scores.keySet());
+        Collections.sort(ranked, new Comparator<Conference>() {
+            @Override
+            public int compare(Conference a, Conference b) {
+                int comparison = Double.compare(scores.get(b), scores.get(a));
+                return comparison != 0 ? comparison
+                        : a.getWebsafeKey().compareTo(b.getWebsafeKey());
+            }
+        });
+        SimilarConferences similar = new SimilarConferences(conferenceKey);
+        for (Conference candidate : ranked.subList(0, Math.min(ranked.size(), TOP_K))) {
+            similar.add(candidate, scores.get(candidate));
+        }
+        return similar;
+    }
+
+    /**
+     * Returns the topics of a Conference without the placeholders of one created without
+     * topics, which would otherwise make all of those similar to each other.
+     */
+    private static List<String> realTopics(List<String> topics) {
+        if (topics == null) {
+            return Collections.emptyList();
+        }
+        List<String> real = new ArrayList<>(topics);
+        real.removeAll(Conference.DEFAULT_TOPICS);
+        return real;
+    }
+
+    /**
+     * Returns the Jaccard index of two topic lists.
+     */
+    private static double topicOverlap(List<String> topics, List<String> otherTopics) {
+        if (topics.isEmpty() || otherTopics.isEmpty()) {
+            return 0;
+        }
+        Set<String> union = new HashSet<>(topics);
+        union.addAll(otherTopics);
+        Set<String> intersection = new HashSet<>(topics);
+        intersection.retainAll(otherTopics);
+        return (double) intersection.size() / union.size();
+    }
+}
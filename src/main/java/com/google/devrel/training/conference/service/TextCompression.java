@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of text fields stored as blobs.
+ *
+ * Every call is counted in Metrics: textCompression.rawBytes against
+ * textCompression.storedBytes is the saving in the datastore and in memcache, and
+ * textCompression.inflate the cost of reading it back.
+ */
+public class TextCompression {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Compresses a text.
+     *
+     * @param text the text.
+     * @return the deflated UTF-8 bytes of the text.
+     */
+    public static byte[] deflate(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            byte[] compressed = out.toByteArray();
+            Metrics.add("textCompression.rawBytes", raw.length);
+            Metrics.add("textCompression.storedBytes", compressed.length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses a text compressed by deflate().
+     *
+     * @param compressed the deflated bytes.
+     * @return the text.
+     * @throws IllegalStateException when the bytes are corrupt.
+     */
+    public static String inflate(byte[] compressed) {
+        long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed text");
+                }
+                out.write(buffer, 0, count);
+            }
+            Metrics.recordLatency("textCompression.inflate",
+                    (System.nanoTime() - start) / 1000000);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed text", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
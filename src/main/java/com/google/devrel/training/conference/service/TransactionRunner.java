@@ -0,0 +1,186 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.googlecode.objectify.Work;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Runs transactions with an explicit retry policy.
+ *
+ * Each attempt is a single-try transaction of the configured ConferenceRepository. Contention (a concurrent modification
+ * of the same entity group) and datastore timeouts are retried with exponential backoff and
+ * jitter until the policy runs out of attempts or time. Any other exception is a business
+ * failure and is thrown right away.
+ *
+ * Every attempt and every contention is counted per operation in Metrics, so contended
+ * operations show up in contentionRates(). The labels are operation names rather than keys,
+ * which keeps the number of counters bounded however many entity groups there are.
+ */
+public class TransactionRunner {
+
+    private static final Logger LOG = Logger.getLogger(TransactionRunner.class.getName());
+
+    private static final String ATTEMPTS_PREFIX = "txn.attempts.";
+
+    private static final String CONTENTION_PREFIX = "txn.contention.";
+
+    /**
+     * Settings of a TransactionRunner.
+     *
+     * The defaults can be overridden with the conference.txn.* system properties in
+     * appengine-web.xml.
+     */
+    public static class RetryPolicy {
+
+        public static final RetryPolicy DEFAULT = new RetryPolicy(
+                Integer.getInteger("conference.txn.maxAttempts", 5),
+                Long.getLong("conference.txn.initialBackoffMillis", 50L),
+                Long.getLong("conference.txn.maxBackoffMillis", 1000L),
+                Long.getLong("conference.txn.deadlineMillis", 20000L));
+
+        private final int maxAttempts;
+        private final long initialBackoffMillis;
+        private final long maxBackoffMillis;
+        private final long deadlineMillis;
+
+        /**
+         * @param maxAttempts the number of attempts before giving up, at least 1.
+         * @param initialBackoffMillis the upper bound of the first backoff.
+         * @param maxBackoffMillis the upper bound of any backoff.
+         * @param deadlineMillis the time budget for all attempts together.
+         */
+        public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                           long deadlineMillis) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            this.maxAttempts = maxAttempts;
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public long getInitialBackoffMillis() {
+            return initialBackoffMillis;
+        }
+
+        public long getMaxBackoffMillis() {
+            return maxBackoffMillis;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+    }
+
+    private final RetryPolicy policy;
+
+    private final Random random = new Random();
+
+    public TransactionRunner() {
+        this(RetryPolicy.DEFAULT);
+    }
+
+    public TransactionRunner(RetryPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Runs the work in a transaction, retrying on contention.
+     *
+     * @param work the transactional work, which may run more than once.
+     * @param operations names of the operation the work belongs to, used for telemetry.
+     * @return the result of the work.
+     * @throws ConcurrentModificationException when the policy gives up on contention.
+     * @throws DatastoreTimeoutException when the policy gives up on timeouts.
+     */
+    public <R> R run(Work<R> work, String... operations) {
+        long start = System.currentTimeMillis();
+        long backoffCap = policy.getInitialBackoffMillis();
+        for (int attempt = 1; ; attempt++) {
+            record(ATTEMPTS_PREFIX, operations);
+            try {
+                return repository().transact(work);
+            } catch (ConcurrentModificationException e) {
+                record(CONTENTION_PREFIX, operations);
+                backoffCap = backOff(attempt, start, backoffCap, e);
+            } catch (DatastoreTimeoutException e) {
+                Metrics.increment("txn.timeout");
+                backoffCap = backOff(attempt, start, backoffCap, e);
+            }
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt, or rethrows when no attempt is left.
+     *
+     * @return the backoff cap for the next attempt.
+     */
+    private long backOff(int attempt, long start, long backoffCap, RuntimeException cause) {
+        // Full jitter: sleep a random time between 0 and the current cap.
+        long sleep = (long) (random.nextDouble() * backoffCap);
+        long elapsed = System.currentTimeMillis() - start;
+        if (attempt >= policy.getMaxAttempts() || elapsed + sleep >= policy.getDeadlineMillis()) {
+            Metrics.increment("txn.gaveUp");
+            LOG.log(Level.WARNING, String.format(
+                    "Giving up a transaction after %d attempts and %d ms", attempt, elapsed),
+                    cause);
+            throw cause;
+        }
+        try {
+            Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+        return Math.min(backoffCap * 2, policy.getMaxBackoffMillis());
+    }
+
+    private static void record(String prefix, String... operations) {
+        for (String operation : operations) {
+            Metrics.increment(prefix + operation);
+        }
+    }
+
+    /**
+     * Returns the contention rate of every transactional operation seen by this instance,
+     * highest first.
+     *
+     * @return operation name and contention rate (contentions / attempts) pairs.
+     */
+    public static List<Map.Entry<String, Double>> contentionRates() {
+        Map<String, Long> counters = Metrics.snapshot();
+        List<Map.Entry<String, Double>> rates = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            if (entry.getKey().startsWith(ATTEMPTS_PREFIX) && entry.getValue() > 0) {
+                String operation = entry.getKey().substring(ATTEMPTS_PREFIX.length());
+                Long contentions = counters.get(CONTENTION_PREFIX + operation);
+                double rate = contentions == null ? 0 : (double) contentions / entry.getValue();
+                rates.add(new AbstractMap.SimpleImmutableEntry<String, Double>(operation, rate));
+            }
+        }
+        Collections.sort(rates, new Comparator<Map.Entry<String, Double>>() {
+            @Override
+            public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+                return Double.compare(b.getValue(), a.getValue());
+            }
+        });
+        return rates;
+    }
+}
@@ -0,0 +1,289 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.TrendingConference;
+import com.google.devrel.training.conference.domain.TrendingScore;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * The "trending now" conferences, ranked by time-decayed registrations.
+ *
+ * A registration only bumps a striped in-memory counter of the instance. Every
+ * conference.trending.flushMillis, the registration that finds the counters due drains them
+ * into one task without waiting for it to be enqueued; the task adds the counts to the
+ * TrendingScores. The flush cron does the same every minute, so counts don't wait for the
+ * next registration on the instance it lands on. The top of the ranking is served from a
+ * memcache snapshot that is rebuilt from the index on logScore when it expires.
+ *
+ * The outcome of an enqueue is checked by the next flush: a failed one is logged and its
+ * counts go back into the counters. Counts not flushed yet are lost when an instance goes
+ * away; the ranking is approximate anyway.
+ */
+public class Trending {
+
+    private static final Logger LOG = Logger.getLogger(Trending.class.getName());
+
+    /**
+     * The most conferences in the snapshot, and so the most getTrending returns.
+     */
+    public static final int MAX_TRENDING = 50;
+
+    private static final double HALF_LIFE_HOURS = Double.parseDouble(
+            System.getProperty("conference.trending.halfLifeHours", "6"));
+
+    /**
+     * The decay rate per millisecond.
+     */
+    private static final double LAMBDA = Math.log(2) / (HALF_LIFE_HOURS * 3600 * 1000);
+
+    /**
+     * The time weights count from, 2014-01-01T00:00:00Z. Changing it shifts every logScore
+     * by the same amount, which leaves the ranking as is.
+     */
+    private static final long EPOCH_MILLIS = 1388534400000L;
+
+    private static final long FLUSH_MILLIS = Long.getLong("conference.trending.flushMillis",
+            10000L);
+
+    private static final int SNAPSHOT_SECONDS = 60;
+
+    /**
+     * Counter cells per conference, so concurrent registrations mostly bump different cells.
+     */
+    private static final int STRIPES = 8;
+
+    private static final String TASK_URL = "/tasks/trending";
+
+    private static final ConcurrentMap<String, AtomicLongArray> COUNTERS =
+            new ConcurrentHashMap<>();
+
+    private static final AtomicLong LAST_FLUSH = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * The enqueue of the last flush, checked by the next one.
+     */
+    private static final AtomicReference<PendingFlush> PENDING = new AtomicReference<>();
+
+    /**
+     * An enqueue in flight and the counts it carries.
+     */
+    private static class PendingFlush {
+
+        private final Future<TaskHandle> enqueue;
+
+        private final Map<String, Long> counts;
+
+        PendingFlush(Future<TaskHandle> enqueue, Map<String, Long> counts) {
+            this.enqueue = enqueue;
+            this.counts = counts;
+        }
+    }
+
+    private static final TransactionRunner TRANSACTION_RUNNER = new TransactionRunner();
+
+    /**
+     * Counts a registration. Never blocks on the datastore or the task queue.
+     *
+     * @param websafeConferenceKey the websafe key of the Conference registered for.
+     */
+    public static void record(String websafeConferenceKey) {
+        counterOf(websafeConferenceKey)
+                .incrementAndGet((int) (Thread.currentThread().getId() % STRIPES));
+        flushIfDue();
+    }
+
+    /**
+     * Drains the counters into a task if the last flush was long enough ago. Only the caller
+     * winning the race on LAST_FLUSH flushes.
+     */
+    public static void flushIfDue() {
+        long now = System.currentTimeMillis();
+        long last = LAST_FLUSH.get();
+        if (now - last < FLUSH_MILLIS || !LAST_FLUSH.compareAndSet(last, now)) {
+            return;
+        }
+        checkPending();
+        TaskOptions task = TaskOptions.Builder.withUrl(TASK_URL).param("at", Long.toString(now));
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, AtomicLongArray> entry : COUNTERS.entrySet()) {
+            long count = drain(entry.getValue());
+            if (count > 0) {
+                task.param("websafeConferenceKey", entry.getKey())
+                        .param("count", Long.toString(count));
+                counts.put(entry.getKey(), count);
+            } else if (COUNTERS.remove(entry.getKey(), entry.getValue())) {
+                // Idle for a whole flush; a registration racing the removal is drained again.
+                long late = drain(entry.getValue());
+                if (late > 0) {
+                    counterOf(entry.getKey()).addAndGet(0, late);
+                }
+            }
+        }
+        if (counts.isEmpty()) {
+            return;
+        }
+        try {
+            PENDING.set(new PendingFlush(QueueFactory.getDefaultQueue().addAsync(task), counts));
+            Metrics.add("trending.flushedConferences", counts.size());
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not enqueue the trending counts of " + counts.size()
+                    + " conferences", e);
+            restore(counts);
+        }
+    }
+
+    /**
+     * Takes the count out of a counter, leaving it at zero.
+     */
+    private static long drain(AtomicLongArray counter) {
+        long count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            count += counter.getAndSet(i, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Checks the enqueue of the previous flush, at least FLUSH_MILLIS old and so long done,
+     * and puts its counts back into the counters when it failed.
+     */
+    private static void checkPending() {
+        PendingFlush pending = PENDING.getAndSet(null);
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.enqueue.get();
+        } catch (ExecutionException e) {
+            LOG.log(Level.WARNING, "Could not enqueue the trending counts of "
+                    + pending.counts.size() + " conferences", e.getCause());
+            Metrics.increment("trending.failedFlushes");
+            restore(pending.counts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds counts that couldn't be flushed back to the counters, for the next flush.
+     */
+    private static void restore(Map<String, Long> counts) {
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            counterOf(entry.getKey()).addAndGet(0, entry.getValue());
+        }
+    }
+
+    private static AtomicLongArray counterOf(String websafeConferenceKey) {
+        AtomicLongArray counter = COUNTERS.get(websafeConferenceKey);
+        if (counter == null) {
+            AtomicLongArray created = new AtomicLongArray(STRIPES);
+            counter = COUNTERS.putIfAbsent(websafeConferenceKey, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Adds counts drained by flushIfDue to the TrendingScores, one transaction per
+     * Conference.
+     *
+     * A score remembers the drain it last applied, so a retry of the task after some of its
+     * transactions committed skips the scores it already added to.
+     *
+     * @param counts registrations by websafe Conference key.
+     * @param at when the counts were drained, which identifies the drain.
+     */
+    public static void apply(Map<String, Long> counts, final long at) {
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            final String websafeConferenceKey = entry.getKey();
+            final double logWeight = Math.log(entry.getValue()) + LAMBDA * (at - EPOCH_MILLIS);
+            final Key<TrendingScore> key = Key.create(TrendingScore.class, websafeConferenceKey);
+            TRANSACTION_RUNNER.run(new Work<Void>() {
+                @Override
+                public Void run() {
+                    TrendingScore score = repository().load(key);
+                    if (score == null) {
+                        score = new TrendingScore(websafeConferenceKey, logWeight, at);
+                    } else if (score.getLastDrainAt() == at) {
+                        Metrics.increment("trending.duplicateDrains");
+                        return null;
+                    } else {
+                        score.add(logWeight, at);
+                    }
+                    repository().save(score);
+                    return null;
+                }
+            }, "trending.apply");
+        }
+    }
+
+    /**
+     * Returns the trending conferences, the hottest first.
+     *
+     * @param limit the most conferences to return, at most MAX_TRENDING.
+     * @return the TrendingConferences, from a snapshot at most a minute old.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<TrendingConference> getTrending(int limit) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        List<TrendingConference> snapshot =
+                (List<TrendingConference>) memcacheService.get(Constants.MEMCACHE_TRENDING_KEY);
+        if (snapshot == null) {
+            Metrics.increment("trending.snapshotMiss");
+            snapshot = snapshot();
+            memcacheService.put(Constants.MEMCACHE_TRENDING_KEY, snapshot,
+                    Expiration.byDeltaSeconds(SNAPSHOT_SECONDS));
+        }
+        return snapshot.size() > limit ? new ArrayList<>(snapshot.subList(0, limit)) : snapshot;
+    }
+
+    /**
+     * Ranks the top TrendingScores, leaving out conferences that are gone.
+     */
+    private static ArrayList<TrendingConference> snapshot() {
+        List<TrendingScore> scores = repository().getTopTrendingScores(MAX_TRENDING);
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(scores.size());
+        for (TrendingScore score : scores) {
+            conferenceKeys.add(Key.<Conference>create(score.getWebsafeConferenceKey()));
+        }
+        Map<Key<Conference>, Conference> conferences = repository().loadAll(conferenceKeys);
+        // The score as a decayed count of registrations, weighed as of now.
+        double logNow = LAMBDA * (System.currentTimeMillis() - EPOCH_MILLIS);
+        ArrayList<TrendingConference> trending = new ArrayList<>(scores.size());
+        for (TrendingScore score : scores) {
+            Conference conference =
+                    conferences.get(Key.<Conference>create(score.getWebsafeConferenceKey()));
+            if (conference != null) {
+                trending.add(new TrendingConference(score.getWebsafeConferenceKey(),
+                        conference.getName(), Math.exp(score.getLogScore() - logNow)));
+            }
+        }
+        return trending;
+    }
+}
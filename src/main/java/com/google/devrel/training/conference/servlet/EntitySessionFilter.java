@@ -0,0 +1,97 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.EntitySession;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.ReadConsistency;
+import com.google.devrel.training.conference.service.RepositoryService;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.google.devrel.training.conference.spi.ReadPolicy;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Gives each API call an EntitySession and records the RPCs it made.
+ *
+ * Map it to /_ah/spi/* after ObjectifyFilter, so the session covers the serialization of the
+ * response. Calls making more than conference.rpcBudget RPCs (20 by default) are logged.
+ *
+ * The session reads with the ReadPolicy of the called ConferenceApi method, found by the
+ * method name at the end of the SPI path. The latency of calls is recorded per consistency,
+ * as readPolicy.{consistency}, and per method, as readPolicy.{consistency}.{method}.
+ */
+public class EntitySessionFilter implements Filter {
+
+    private static final Logger LOG = Logger.getLogger(EntitySessionFilter.class.getName());
+
+    private static final int RPC_BUDGET = Integer.getInteger("conference.rpcBudget", 20);
+
+    /**
+     * The read consistency of each ConferenceApi method with a ReadPolicy or an override.
+     */
+    private static final Map<String, ReadConsistency> POLICIES = readPolicies();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        String path = ((HttpServletRequest) request).getRequestURI();
+        String method = path.substring(path.lastIndexOf('.') + 1);
+        ReadConsistency consistency = POLICIES.get(method);
+        if (consistency == null) {
+            consistency = ReadConsistency.STRONG;
+        }
+        long start = System.currentTimeMillis();
+        RepositoryService.openSession(consistency);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            EntitySession session = RepositoryService.closeSession();
+            String policy = "readPolicy." + consistency.name().toLowerCase(Locale.ENGLISH);
+            long millis = System.currentTimeMillis() - start;
+            Metrics.recordLatency(policy, millis);
+            Metrics.recordLatency(policy + "." + method, millis);
+            Metrics.increment("entitySession.requests");
+            Metrics.add("entitySession.rpcs", session.getRpcCount());
+            Metrics.add("entitySession.deduped", session.getDedupedCount());
+            Metrics.add("entitySession.cacheHits", session.getCacheHitCount());
+            if (session.getRpcCount() > RPC_BUDGET) {
+                Metrics.increment("entitySession.overBudget");
+                LOG.warning(((HttpServletRequest) request).getRequestURI() + " made "
+                        + session.getRpcCount() + " RPCs, over the budget of " + RPC_BUDGET);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static Map<String, ReadConsistency> readPolicies() {
+        Map<String, ReadConsistency> policies = new HashMap<>();
+        for (Method method : ConferenceApi.class.getMethods()) {
+            ReadPolicy readPolicy = method.getAnnotation(ReadPolicy.class);
+            String override = System.getProperty("conference.readPolicy." + method.getName());
+            if (override != null) {
+                policies.put(method.getName(), ReadConsistency.valueOf(override));
+            } else if (readPolicy != null) {
+                policies.put(method.getName(), readPolicy.value());
+            }
+        }
+        return policies;
+    }
+}
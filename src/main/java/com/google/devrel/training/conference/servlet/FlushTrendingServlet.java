@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Trending;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * The cron servlet flushing the trending counters of the instance it runs on when they are
+ * due, so they don't wait for the next registration there.
+ */
+@SuppressWarnings("serial")
+public class FlushTrendingServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Trending.flushIfDue();
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.JobService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Runs the tasks of the sharded job framework: op=shard works on one shard for a time slice,
+ * op=finish runs the finish step of a job.
+ *
+ * An exception fails the task and the task queue retries it; the retry resumes from the
+ * shard's last checkpoint.
+ */
+@SuppressWarnings("serial")
+public class JobTaskServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String jobId = request.getParameter("jobId");
+        if ("finish".equals(request.getParameter("op"))) {
+            JobService.finish(jobId);
+        } else {
+            JobService.runShard(jobId, Integer.parseInt(request.getParameter("shard")),
+                    Long.parseLong(request.getParameter("sequence")));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,77 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.JobShard;
+import com.google.devrel.training.conference.domain.JobState;
+import com.google.devrel.training.conference.service.JobService;
+import com.google.devrel.training.conference.service.ShardedJob;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * An admin servlet for the sharded job framework.
+ *
+ * GET prints the registered jobs and the progress of the recent runs, shard by shard.
+ * POST with name (and optionally shards) starts a run.
+ */
+@SuppressWarnings("serial")
+public class JobsServlet extends HttpServlet {
+
+    private static final int RECENT_RUNS = 20;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+
+        writer.println("# Jobs");
+        for (ShardedJob<?> job : JobService.getJobs()) {
+            writer.println(job.getName() + " kind=" + job.getKind().getSimpleName()
+                    + " shards=" + job.getDefaultShardCount());
+        }
+
+        writer.println();
+        writer.println("# Recent runs");
+        for (JobState state : repository().getRecentJobs(RECENT_RUNS)) {
+            writer.println(state.getId() + " " + state.getStatus() + " started="
+                    + state.getStarted() + " finished=" + state.getFinished());
+            for (JobShard shard : JobService.getShards(state)) {
+                if (shard == null) {
+                    continue;
+                }
+                writer.println("  shard " + shard.getIndex()
+                        + (shard.isDone() ? " done" : " running")
+                        + " processed=" + shard.getProcessed()
+                        + " batches=" + shard.getBatches()
+                        + " failures=" + shard.getFailures()
+                        + " updated=" + shard.getUpdated()
+                        + (shard.getLastError() == null
+                                ? "" : " lastError=" + shard.getLastError()));
+            }
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String shards = request.getParameter("shards");
+        JobState state;
+        try {
+            state = JobService.start(request.getParameter("name"),
+                    shards == null ? 0 : Integer.parseInt(shards));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        response.setContentType("text/plain");
+        response.getWriter().println(state.getId());
+    }
+}
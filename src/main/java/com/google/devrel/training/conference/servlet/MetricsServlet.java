@@ -0,0 +1,48 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.TransactionRunner;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * An admin servlet that prints the counters of the instance serving the request,
+ * followed by the transaction contention rate of each operation and the compression
+ * ratio of stored text.
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+
+        writer.println("# Counters");
+        for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+            writer.println(entry.getKey() + " " + entry.getValue());
+        }
+
+        writer.println();
+        writer.println("# Transaction contention rate by operation");
+        for (Map.Entry<String, Double> entry : TransactionRunner.contentionRates()) {
+            writer.println(String.format("%s %.3f", entry.getKey(), entry.getValue()));
+        }
+
+        long rawBytes = Metrics.get("textCompression.rawBytes");
+        if (rawBytes > 0) {
+            writer.println();
+            writer.println("# Compressed text stored / raw size");
+            writer.println(String.format("ratio %.3f",
+                    (double) Metrics.get("textCompression.storedBytes") / rawBytes));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.QueryProfiler;
+import com.google.devrel.training.conference.service.QueryProfiler.ShapeStats;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * An admin servlet that prints the Conference query shapes of the instance serving the
+ * request, the costliest first, with their latency and result size histograms.
+ *
+ * The limit parameter sets the number of shapes, 20 by default.
+ */
+@SuppressWarnings("serial")
+public class QueryShapesServlet extends HttpServlet {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        int limit = DEFAULT_LIMIT;
+        if (request.getParameter("limit") != null) {
+            try {
+                limit = Integer.parseInt(request.getParameter("limit"));
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit");
+                return;
+            }
+        }
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+
+        writer.println("# Latency buckets (ms, upper bounds): "
+                + Arrays.toString(QueryProfiler.LATENCY_BOUNDS) + " and above");
+        writer.println("# Result size buckets (upper bounds): "
+                + Arrays.toString(QueryProfiler.RESULT_SIZE_BOUNDS) + " and above");
+        for (ShapeStats stats : QueryProfiler.topShapes(limit)) {
+            writer.println();
+            writer.println(stats.getShape());
+            writer.println(String.format("  count %d, total %d ms, mean %.1f ms, mean %.1f results",
+                    stats.getCount(), stats.getTotalMillis(),
+                    (double) stats.getTotalMillis() / stats.getCount(),
+                    (double) stats.getTotalResults() / stats.getCount()));
+            writer.println("  latency " + Arrays.toString(stats.getLatencyHistogram()));
+            writer.println("  results " + Arrays.toString(stats.getResultSizeHistogram()));
+        }
+    }
+}
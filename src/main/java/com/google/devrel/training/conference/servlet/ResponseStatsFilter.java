@@ -0,0 +1,122 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.quota.QuotaService;
+import com.google.appengine.api.quota.QuotaServiceFactory;
+import com.google.devrel.training.conference.service.ResponseStats;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Measures the size of each API response and the CPU spent producing it, serialization
+ * included, and records them with ResponseStats.
+ *
+ * Map it to /_ah/spi/*. The method name is the last part of the SPI path, e.g.
+ * queryConferences for /_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.
+ * queryConferences.
+ */
+public class ResponseStatsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        QuotaService quotaService = QuotaServiceFactory.getQuotaService();
+        boolean cpuSupported =
+                quotaService.supports(QuotaService.DataType.CPU_TIME_IN_MEGACYCLES);
+        long startMegacycles = cpuSupported ? quotaService.getCpuTimeInMegaCycles() : 0;
+        long start = System.currentTimeMillis();
+        CountingResponse counting = new CountingResponse((HttpServletResponse) response);
+        try {
+            chain.doFilter(request, counting);
+            counting.flushBuffer();
+        } finally {
+            long megacycles =
+                    cpuSupported ? quotaService.getCpuTimeInMegaCycles() - startMegacycles : 0;
+            ResponseStats.record(methodName((HttpServletRequest) request), counting.bytes,
+                    System.currentTimeMillis() - start, megacycles);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static String methodName(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return path.substring(path.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * A response counting the bytes written to it.
+     */
+    private static class CountingResponse extends HttpServletResponseWrapper {
+
+        private long bytes;
+
+        private ServletOutputStream outputStream;
+
+        private PrintWriter writer;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        bytes++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(
+                        new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            super.flushBuffer();
+        }
+    }
+}
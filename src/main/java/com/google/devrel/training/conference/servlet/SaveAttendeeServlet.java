@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.SeatHolds;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * The task saving the Attendee of a confirmed seat hold, added by the confirming transaction.
+ */
+@SuppressWarnings("serial")
+public class SaveAttendeeServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Key<Conference> conferenceKey = Key.create(request.getParameter("websafeConferenceKey"));
+        SeatHolds.saveAttendee(conferenceKey, request.getParameter("userId"));
+        response.setStatus(204);
+    }
+}
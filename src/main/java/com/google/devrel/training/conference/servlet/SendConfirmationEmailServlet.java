@@ -18,7 +18,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A servlet for sending a notification e-mail.
+ * A servlet for sending a notification e-mail, usually a digest built by Notifications.
  */
 public class SendConfirmationEmailServlet extends HttpServlet {
 
@@ -29,10 +29,16 @@ public class SendConfirmationEmailServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         String email = request.getParameter("email");
-        String conferenceInfo = request.getParameter("conferenceInfo");
+        String subject = request.getParameter("subject");
+        String body = request.getParameter("body");
+        if (body == null) {
+            // A task enqueued by createConference before notifications were buffered.
+            subject = "You created a new Conference!";
+            body = "Hi, you have created a following conference.\n"
+                    + request.getParameter("conferenceInfo");
+        }
         Properties props = new Properties();
         Session session = Session.getDefaultInstance(props, null);
-        String body = "Hi, you have created a following conference.\n" + conferenceInfo;
         try {
             Message message = new MimeMessage(session);
             InternetAddress from = new InternetAddress(
@@ -40,7 +46,7 @@ public class SendConfirmationEmailServlet extends HttpServlet {
                             SystemProperty.applicationId.get()), "Conference Central");
             message.setFrom(from);
             message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
-            message.setSubject("You created a new Conference!");
+            message.setSubject(subject);
             message.setText(body);
             Transport.send(message);
         } catch (MessagingException e) {
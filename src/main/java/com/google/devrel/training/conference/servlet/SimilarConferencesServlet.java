@@ -0,0 +1,35 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SimilarConferencesJob;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * The coordinator of the similar conferences job.
+ *
+ * The cron GET starts the run of the day from the first Conference; each coordinator task (a
+ * POST with the runId, page and cursor params) fans out one page of conferences to shard
+ * tasks and enqueues itself for the next page.
+ */
+@SuppressWarnings("serial")
+public class SimilarConferencesServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        SimilarConferencesJob.enqueueShards(SimilarConferencesJob.newRunId(), 0, null);
+        response.setStatus(204);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        SimilarConferencesJob.enqueueShards(request.getParameter("runId"),
+                Integer.parseInt(request.getParameter("page")), request.getParameter("cursor"));
+        response.setStatus(204);
+    }
+}
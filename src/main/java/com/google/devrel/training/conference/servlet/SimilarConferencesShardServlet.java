@@ -0,0 +1,34 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.SimilarConferencesJob;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A shard task of the similar conferences job, computing the conferences passed as
+ * websafeConferenceKey params.
+ *
+ * A failure fails the task, and the task queue retries the whole shard; recomputing a
+ * Conference just overwrites its SimilarConferences.
+ */
+@SuppressWarnings("serial")
+public class SimilarConferencesShardServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] websafeConferenceKeys = request.getParameterValues("websafeConferenceKey");
+        if (websafeConferenceKeys != null) {
+            for (String websafeConferenceKey : websafeConferenceKeys) {
+                SimilarConferencesJob.computeAndSave(Key.<Conference>create(websafeConferenceKey));
+            }
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Trending;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The task adding the registration counts drained from an instance to the TrendingScores.
+ *
+ * The counts come as parallel websafeConferenceKey and count params. A retried task may
+ * count some registrations twice, which the ranking tolerates.
+ */
+@SuppressWarnings("serial")
+public class TrendingTaskServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] websafeConferenceKeys = request.getParameterValues("websafeConferenceKey");
+        String[] counts = request.getParameterValues("count");
+        if (websafeConferenceKeys != null && counts != null) {
+            Map<String, Long> registrations = new LinkedHashMap<>();
+            for (int i = 0; i < Math.min(websafeConferenceKeys.length, counts.length); i++) {
+                registrations.put(websafeConferenceKeys[i], Long.parseLong(counts[i]));
+            }
+            Trending.apply(registrations, Long.parseLong(request.getParameter("at")));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,178 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.SeatAvailability;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.ChangeFeed;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.SeatInventory;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-poll servlet that pushes seat and announcement changes to the browser.
+ *
+ * The request names the conferences the client is viewing (keys). The response carries the
+ * SeatInventory snapshot and the announcement with an ETag over the body. When the request's
+ * If-None-Match still matches, the servlet waits on the ChangeFeed for up to about 25 seconds
+ * and answers as soon as the body changes, or with an empty 304 when the wait runs out; the
+ * client then asks again right away. Changes made on other instances are found by re-checking
+ * every few seconds.
+ *
+ * The servlet API of this container has no async support, so each waiting request holds a
+ * thread. The number of waiting requests is capped per instance; past the cap the request is
+ * answered with a 503 and a Retry-After, and the client backs off.
+ */
+@SuppressWarnings("serial")
+public class UpdatesServlet extends HttpServlet {
+
+    /**
+     * How long a request waits for a change before answering 304.
+     */
+    private static final long POLL_MILLIS = Long.getLong("conference.updates.pollMillis", 25000L);
+
+    /**
+     * How often a waiting request re-checks for changes made on other instances.
+     */
+    private static final long RECHECK_MILLIS = 2000L;
+
+    /**
+     * The most requests an instance lets wait at once.
+     */
+    private static final int MAX_WAITERS = Integer.getInteger("conference.updates.maxWaiters", 100);
+
+    /**
+     * The most conferences a single request may watch.
+     */
+    private static final int MAX_KEYS = 50;
+
+    private static final AtomicInteger WAITERS = new AtomicInteger();
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Set<String> keys = new LinkedHashSet<>();
+        String[] keyParameters = request.getParameterValues("keys");
+        if (keyParameters != null) {
+            keys.addAll(Arrays.asList(keyParameters));
+        }
+        if (keys.size() > MAX_KEYS) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "At most " + MAX_KEYS + " conferences can be watched at once");
+            return;
+        }
+
+        String clientEtag = request.getHeader("If-None-Match");
+        String body = body(keys);
+        String etag = etag(body);
+        if (etag.equals(clientEtag)) {
+            if (WAITERS.incrementAndGet() > MAX_WAITERS) {
+                WAITERS.decrementAndGet();
+                Metrics.increment("updates.rejected");
+                response.setHeader("Retry-After", String.valueOf(POLL_MILLIS / 1000));
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Too many waiting requests");
+                return;
+            }
+            long deadline = System.currentTimeMillis() + POLL_MILLIS;
+            ChangeFeed.Subscriber subscriber = ChangeFeed.subscribe(keys);
+            try {
+                long remaining = POLL_MILLIS;
+                while (etag.equals(clientEtag) && remaining > 0) {
+                    subscriber.await(Math.min(RECHECK_MILLIS, remaining));
+                    body = body(keys);
+                    etag = etag(body);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            } finally {
+                ChangeFeed.unsubscribe(subscriber, keys);
+                WAITERS.decrementAndGet();
+            }
+        }
+
+        // Browsers revalidate on every poll, but never serve the body without asking.
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("ETag", etag);
+        if (etag.equals(clientEtag)) {
+            Metrics.increment("updates.notModified");
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        Metrics.increment("updates.modified");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(body);
+    }
+
+    /**
+     * Returns the JSON the client shows for the given conferences, from the SeatInventory
+     * snapshot and the announcement near-cache.
+     */
+    private static String body(Set<String> keys) {
+        List<SeatAvailability> seats = new ArrayList<>(SeatInventory.get(keys).values());
+        String announcement = AnnouncementCache.get(AnnouncementCache.globalScope());
+
+        StringBuilder json = new StringBuilder("{\"seats\":[");
+        for (int i = 0; i < seats.size(); i++) {
+            SeatAvailability availability = seats.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"websafeConferenceKey\":").append(quote(availability.getWebsafeConferenceKey()))
+                    .append(",\"seatsAvailable\":").append(availability.getSeatsAvailable())
+                    .append(",\"version\":\"").append(availability.getVersion()).append("\"}");
+        }
+        json.append("],\"announcement\":").append(quote(announcement))
+                .append(",\"announcementVersion\":").append(quote(announcementVersion(announcement)))
+                .append('}');
+        return json.toString();
+    }
+
+    private static String etag(String body) {
+        return '"' + Integer.toHexString(body.hashCode()) + '"';
+    }
+
+    private static String announcementVersion(String announcement) {
+        return announcement == null ? "" : Integer.toHexString(announcement.hashCode());
+    }
+
+    /**
+     * Returns the value as a JSON string literal, or null.
+     */
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20 || c == '<' || c == '>') {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
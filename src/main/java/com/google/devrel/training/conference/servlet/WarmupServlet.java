@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.api.server.spi.ObjectMapperUtil;
+import com.google.appengine.repackaged.org.codehaus.jackson.map.ObjectWriter;
+import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceDetail;
+import com.google.devrel.training.conference.domain.SeatAvailability;
+import com.google.devrel.training.conference.domain.SeatAvailabilityList;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.service.SeatInventory;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
+
+/**
+ * Handles /_ah/warmup, which App Engine sends to a new instance before live traffic.
+ *
+ * It registers the Objectify entities, primes the caches with the hottest conferences and
+ * the current announcement, and serializes a sample of every response type with the same
+ * Jackson configuration Endpoints uses, so the first user request doesn't pay for building
+ * the serializers.
+ */
+@SuppressWarnings("serial")
+public class WarmupServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(WarmupServlet.class.getName());
+
+    /**
+     * The number of conferences preloaded, those with the fewest seats left first.
+     */
+    private static final int HOT_CONFERENCES = 20;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.currentTimeMillis();
+
+        // Runs the static registration of the entities.
+        OfyService.factory();
+        long ofyMillis = System.currentTimeMillis() - start;
+
+        // Nearly sold-out conferences are the ones everybody is looking at.
+        // Conference is @Cache, so Objectify runs this as a keys-only query plus a get by key,
+        // which fills memcache.
+        List<Conference> hotConferences = repository().getConferencesBySeatsAvailable(
+                null, 0, Integer.MAX_VALUE, HOT_CONFERENCES);
+        List<SeatAvailability> availabilities = new ArrayList<>();
+        for (Conference conference : hotConferences) {
+            availabilities.add(SeatInventory.put(conference));
+        }
+        String announcement = AnnouncementCache.get(AnnouncementCache.globalScope());
+        long cacheMillis = System.currentTimeMillis() - start - ofyMillis;
+
+        // Loads the API class and builds the serializers of the types it returns.
+        new ConferenceApi();
+        ObjectWriter writer = ObjectMapperUtil.createStandardObjectMapper().writer();
+        for (Conference conference : hotConferences) {
+            serialize(writer, conference);
+            serialize(writer, new ConferenceDetail(conference, conference.getOrganizerUserId(),
+                    false));
+        }
+        serialize(writer, new SeatAvailabilityList(availabilities, 0));
+        serialize(writer, new Announcement(announcement));
+
+        long totalMillis = System.currentTimeMillis() - start;
+        Metrics.recordLatency("warmup", totalMillis);
+        String report = String.format(
+                "Warmup took %d ms (objectify %d ms, caches %d ms, %d conferences)",
+                totalMillis, ofyMillis, cacheMillis, hotConferences.size());
+        LOG.info(report);
+        response.setContentType("text/plain");
+        response.getWriter().println(report);
+    }
+
+    /**
+     * Writes a response the way the Endpoints servlet does, and throws the JSON away.
+     */
+    private static void serialize(ObjectWriter writer, Object response) {
+        try {
+            writer.writeValueAsString(response);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to warm up " + response.getClass().getName(), e);
+        }
+    }
+}
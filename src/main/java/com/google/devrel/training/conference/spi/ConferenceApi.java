@@ -4,35 +4,79 @@ package com.google.devrel.training.conference.spi;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
-import com.google.appengine.api.taskqueue.Queue;
-import com.google.appengine.api.taskqueue.QueueFactory;
-import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.users.User;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.ArchivedConference;
+import com.google.devrel.training.conference.domain.Attendee;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceBatch;
+import com.google.devrel.training.conference.domain.ConferenceDetail;
+import com.google.devrel.training.conference.domain.ConferenceInventory;
+import com.google.devrel.training.conference.domain.ConferenceResponse;
+import com.google.devrel.training.conference.domain.FieldMask;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.domain.PendingNotification;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.ProfileResponse;
+import com.google.devrel.training.conference.domain.Roster;
+import com.google.devrel.training.conference.domain.RosterEntry;
+import com.google.devrel.training.conference.domain.SeatAvailability;
+import com.google.devrel.training.conference.domain.SeatAvailabilityList;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.SeatHoldSlot;
+import com.google.devrel.training.conference.domain.SimilarConference;
+import com.google.devrel.training.conference.domain.SimilarConferences;
+import com.google.devrel.training.conference.domain.TrendingConference;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceKeysForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
 import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.QueryPlan;
+import com.google.devrel.training.conference.form.QueryPlanner;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.ChangeFeed;
+import com.google.devrel.training.conference.service.IdempotencyService;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.Page;
+import com.google.devrel.training.conference.service.QueryProfiler;
+import com.google.devrel.training.conference.service.ReadConsistency;
+import com.google.devrel.training.conference.service.ResponseStats;
+import com.google.devrel.training.conference.service.SeatHolds;
+import com.google.devrel.training.conference.service.SeatInventory;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.google.devrel.training.conference.service.Trending;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.Work;
-import com.googlecode.objectify.cmd.Query;
 
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import static com.google.devrel.training.conference.service.OfyService.factory;
-import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static com.google.devrel.training.conference.service.RepositoryService.repository;
 
 
 /**
@@ -42,32 +86,85 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
         Constants.WEB_CLIENT_ID, Constants.API_EXPLORER_CLIENT_ID }, description = "API for the Conference Central Backend application.")
 public class ConferenceApi {
 
+    /**
+     * Runs the transactions of this API with the configured retry policy.
+     */
+    private static final TransactionRunner TRANSACTION_RUNNER = new TransactionRunner();
+
+    /**
+     * The most conferences a single seatAvailability call may ask for.
+     */
+    private static final int MAX_SEAT_AVAILABILITY_KEYS = 500;
+
+    /**
+     * The most conferences a single getConferences call may ask for.
+     */
+    private static final int MAX_GET_CONFERENCES_KEYS = 300;
+
+    /**
+     * The most archived conferences a list call with includeArchived looks at.
+     */
+    private static final int MAX_ARCHIVED_CONFERENCES = 1000;
+
+    /**
+     * The page size of getAttendees, when the client doesn't ask for one.
+     */
+    private static final int DEFAULT_ATTENDEES_PAGE = 50;
+
+    /**
+     * The largest page getAttendees returns.
+     */
+    private static final int MAX_ATTENDEES_PAGE = 200;
+
+    /**
+     * The number of conferences getTrendingConferences returns, when the client doesn't ask.
+     */
+    private static final int DEFAULT_TRENDING_LIMIT = 10;
 
+    @ReadPolicy(ReadConsistency.EVENTUAL)
     @ApiMethod(
             name = "queryConferences_nofilters",
             path = "queryConferences_nofilters",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> queryConferences_nofilters() {
+    public List<ConferenceResponse> queryConferences_nofilters(
+            @Nullable @Named("select") final String select,
+            @Nullable @Named("includeArchived") final Boolean includeArchived)
+            throws BadRequestException {
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
         // Find all entities of type Conference
-        Query<Conference> query = ofy().load().type(Conference.class).order("name");
-
-        return query.list();
+        long start = System.currentTimeMillis();
+        List<Conference> conferences = repository().queryConferences(
+                Collections.<Filter>emptyList(), Collections.singletonList("name"));
+        QueryProfiler.record(Collections.<Filter>emptyList(), Collections.singletonList("name"),
+                System.currentTimeMillis() - start, conferences.size());
+        if (Boolean.TRUE.equals(includeArchived)) {
+            conferences = new ArrayList<>(conferences);
+            conferences.addAll(getArchivedConferences(Collections.<Filter>emptyList()));
+        }
+        return prepareList(conferences, false, fieldMask);
     }
 
 
 
+    /**
+     * Returns the announcement of nearly sold-out conferences.
+     *
+     * @param city Only announce conferences in this city, optional.
+     * @param topic Only announce conferences on this topic, optional; ignored when city is set.
+     * @return the Announcement, or null when there is nothing to announce.
+     */
     @ApiMethod(
             name="getAnnouncement",
             path = "announcement",
             httpMethod = HttpMethod.GET
     )
-    public Announcement getAnnouncement(){
-        //TODO GET announcement from memcache by key and if it exist return it
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        Object message = memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+    public Announcement getAnnouncement(@Nullable @Named("city") String city,
+                                        @Nullable @Named("topic") String topic){
+        //TODO GET announcement from the near-cache or memcache and if it exist return it
+        String message = AnnouncementCache.get(AnnouncementCache.scopeOf(city, topic));
         if (message != null) {
-            return new Announcement(message.toString());
+            return new Announcement(message);
         }
         return null;
     }
@@ -77,23 +174,317 @@ public class ConferenceApi {
      * Returns a Conference object with the given conferenceId.
      *
      * @param websafeConferenceKey The String representation of the Conference Key.
-     * @return a Conference object with the given conferenceId.
+     * @param select The properties to return, comma separated, optional.
+     * @return a Conference object with the given conferenceId, archived or not.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws BadRequestException when select names an unknown property.
      */
+    @ReadPolicy(ReadConsistency.CACHE_ONLY_WITH_FALLBACK)
     @ApiMethod(
             name = "getConference",
             path = "conference/{websafeConferenceKey}",
             httpMethod = HttpMethod.GET
     )
-    public Conference getConference(
+    public ConferenceResponse getConference(
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("select") final String select)
+            throws NotFoundException, BadRequestException {
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = repository().load(conferenceKey);
+        if (conference == null) {
+            // It may have ended long ago and been archived.
+            ArchivedConference archived =
+                    repository().load(ArchivedConference.keyOf(conferenceKey));
+            if (archived == null) {
+                throw new NotFoundException(
+                        "No Conference found with key: " + websafeConferenceKey);
+            }
+            conference = archived.toConference();
+        }
+        return new ConferenceResponse(conference, fieldMask, true);
+    }
+
+
+    /**
+     * Returns the conferences with the given keys, loaded with one batched get, and their
+     * organizers' display names, resolved with a second one. Keys of archived conferences
+     * cost one more batched get.
+     *
+     * The keys are sent in the request body, which is why this is a POST.
+     *
+     * @param conferenceKeysForm The String representations of the Conference Keys.
+     * @param includeDescription Whether to return the descriptions, false by default.
+     * @param select The properties to return, comma separated, optional.
+     * @return the conferences found, in the order of the keys, and the keys not found.
+     * @throws BadRequestException when too many keys are requested or select names an
+     *         unknown property.
+     */
+    @ReadPolicy(ReadConsistency.CACHE_ONLY_WITH_FALLBACK)
+    @ApiMethod(
+            name = "getConferences",
+            path = "conferences",
+            httpMethod = HttpMethod.POST
+    )
+    public ConferenceBatch getConferences(final ConferenceKeysForm conferenceKeysForm,
+            @Nullable @Named("includeDescription") final Boolean includeDescription,
+            @Nullable @Named("select") final String select)
+            throws BadRequestException {
+        List<String> websafeConferenceKeys = conferenceKeysForm.getWebsafeConferenceKeys();
+        if (websafeConferenceKeys.size() > MAX_GET_CONFERENCES_KEYS) {
+            throw new BadRequestException("At most " + MAX_GET_CONFERENCES_KEYS
+                    + " conferences can be requested at once");
+        }
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            conferenceKeys.add(parseConferenceKey(websafeConferenceKey));
+        }
+        Set<Key<Conference>> uniqueKeys = new HashSet<>(conferenceKeys);
+        uniqueKeys.remove(null);
+        Map<Key<Conference>, Conference> loaded = repository().loadAll(uniqueKeys);
+
+        // Keys not found may belong to archived conferences.
+        List<Key<ArchivedConference>> archivedKeys = new ArrayList<>();
+        for (Key<Conference> key : uniqueKeys) {
+            if (!loaded.containsKey(key)) {
+                archivedKeys.add(ArchivedConference.keyOf(key));
+            }
+        }
+        if (!archivedKeys.isEmpty()) {
+            loaded = new HashMap<>(loaded);
+            for (ArchivedConference archived : repository().loadAll(archivedKeys).values()) {
+                loaded.put(archived.getConferenceKey(), archived.toConference());
+            }
+        }
+
+        List<Conference> conferences = new ArrayList<>(websafeConferenceKeys.size());
+        List<String> notFound = new ArrayList<>();
+        for (int i = 0; i < conferenceKeys.size(); i++) {
+            Conference conference =
+                    conferenceKeys.get(i) == null ? null : loaded.get(conferenceKeys.get(i));
+            if (conference == null) {
+                notFound.add(websafeConferenceKeys.get(i));
+            } else {
+                conferences.add(conference);
+            }
+        }
+        if (fieldMask.includes("organizerDisplayName")) {
+            attachOrganizers(loaded.values());
+        }
+        List<ConferenceResponse> items =
+                prepareList(conferences, Boolean.TRUE.equals(includeDescription), fieldMask);
+        Metrics.add("getConferences.keys", websafeConferenceKeys.size());
+        Metrics.add("getConferences.notFound", notFound.size());
+        return new ConferenceBatch(items, notFound);
+    }
+
+
+    /**
+     * Returns a Conference together with its organizer's display name and whether the caller
+     * is registered, loading the Conference and both Profiles in one batched get.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the ConferenceDetail; registered is false when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     */
+    @ApiMethod(
+            name = "conferenceDetail",
+            path = "conference/{websafeConferenceKey}/detail",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceDetail conferenceDetail(final User user,
             @Named("websafeConferenceKey") final String websafeConferenceKey)
             throws NotFoundException {
         Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
+        Key<Profile> organizerKey = conferenceKey.getParent();
+        Key<ConferenceInventory> inventoryKey = ConferenceInventory.keyOf(conferenceKey);
+        Map<Key<?>, Object> loaded;
+        Key<Profile> profileKey = null;
+        if (user == null) {
+            loaded = repository().loadAll(conferenceKey, organizerKey, inventoryKey);
+        } else {
+            profileKey = Key.create(Profile.class, user.getUserId());
+            loaded = repository().loadAll(conferenceKey, organizerKey, inventoryKey, profileKey);
+        }
+
+        Conference conference = (Conference) loaded.get(conferenceKey);
         if (conference == null) {
             throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
         }
-        return conference;
+        ConferenceInventory inventory = (ConferenceInventory) loaded.get(inventoryKey);
+        if (inventory != null) {
+            conference.attachInventory(inventory);
+        }
+        Profile organizer = (Profile) loaded.get(organizerKey);
+        String organizerDisplayName = organizer == null
+                ? conference.getOrganizerUserId() : organizer.getDisplayName();
+        Profile profile = profileKey == null ? null : (Profile) loaded.get(profileKey);
+        boolean registered = profile != null
+                && profile.getConferenceKeysToAttend().contains(websafeConferenceKey);
+        return new ConferenceDetail(conference, organizerDisplayName, registered);
+    }
+
+
+    /**
+     * Returns the conferences most similar to a Conference, by shared attendees and topics.
+     *
+     * The lists are precomputed by the similar conferences job, so this is one cached get.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the similar conferences, best first; empty until the job has run.
+     */
+    @ReadPolicy(ReadConsistency.EVENTUAL)
+    @ApiMethod(
+            name = "getSimilarConferences",
+            path = "conference/{websafeConferenceKey}/similar",
+            httpMethod = HttpMethod.GET
+    )
+    public List<SimilarConference> getSimilarConferences(
+            @Named("websafeConferenceKey") final String websafeConferenceKey) {
+        SimilarConferences similar = repository().load(
+                SimilarConferences.keyOf(Key.<Conference>create(websafeConferenceKey)));
+        if (similar == null) {
+            return Collections.emptyList();
+        }
+        return similar.getItems();
+    }
+
+
+    /**
+     * Returns the conferences with the most registrations lately, a registration counting
+     * half after every half-life.
+     *
+     * The ranking is served from a snapshot rebuilt at most once a minute, so registrations
+     * show up in it after a short delay.
+     *
+     * @param limit The most conferences to return, at most 50; 10 if not given.
+     * @return the trending conferences, the hottest first.
+     */
+    @ReadPolicy(ReadConsistency.EVENTUAL)
+    @ApiMethod(
+            name = "getTrendingConferences",
+            path = "trendingConferences",
+            httpMethod = HttpMethod.GET
+    )
+    public List<TrendingConference> getTrendingConferences(
+            @Nullable @Named("limit") final Integer limit) {
+        // Counts of an instance nobody registers on still get flushed.
+        Trending.flushIfDue();
+        int max = limit == null ? DEFAULT_TRENDING_LIMIT
+                : Math.max(0, Math.min(limit, Trending.MAX_TRENDING));
+        return Trending.getTrending(max);
+    }
+
+
+    /**
+     * Returns the seat inventory of many conferences at once.
+     *
+     * Polling clients pass back the version of the previous response as sinceVersion, and get
+     * only the conferences whose inventory changed since then. The keys travel in the request
+     * body, like those of getConferences.
+     *
+     * @param conferenceKeysForm The String representations of the Conference Keys.
+     * @param sinceVersion Only return conferences with a newer inventory version, optional.
+     * @return the changed inventory entries and the current version.
+     * @throws BadRequestException when too many keys are requested.
+     */
+    @ApiMethod(
+            name = "seatAvailability",
+            path = "seatAvailability",
+            httpMethod = HttpMethod.POST
+    )
+    public SeatAvailabilityList seatAvailability(final ConferenceKeysForm conferenceKeysForm,
+            @Nullable @Named("sinceVersion") final Long sinceVersion)
+            throws BadRequestException {
+        List<String> websafeConferenceKeys = conferenceKeysForm.getWebsafeConferenceKeys();
+        if (websafeConferenceKeys.size() > MAX_SEAT_AVAILABILITY_KEYS) {
+            throw new BadRequestException("At most " + MAX_SEAT_AVAILABILITY_KEYS
+                    + " conferences can be requested at once");
+        }
+        long since = sinceVersion == null ? Long.MIN_VALUE : sinceVersion;
+        SeatInventory.Lookup lookup = SeatInventory.lookup(websafeConferenceKeys);
+        List<SeatAvailability> changed = new ArrayList<>();
+        for (SeatAvailability availability : lookup.getAvailabilities().values()) {
+            if (availability.getVersion() > since) {
+                changed.add(availability);
+            }
+        }
+        return new SeatAvailabilityList(changed, lookup.nextVersion(since));
+    }
+
+    /**
+     * Returns a page of the attendees of a Conference, for its organizer only.
+     *
+     * The roster is read from the Attendee children of the Conference in userId order, so
+     * each page costs one ancestor query and one batched get of the attendees' Profiles,
+     * however many attendees the Conference has. Archival leaves the Attendees in place, so
+     * the roster of an archived Conference is read the same way.
+     *
+     * @param user A User object injected by the cloud endpoints.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param pageToken The nextPageToken of the previous page, optional.
+     * @param limit The page size, optional.
+     * @return the Roster page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ForbiddenException when the user is not the organizer.
+     * @throws NotFoundException when the key is not a Conference key or there is no such
+     *         Conference.
+     * @throws BadRequestException when the page token or the limit is not valid.
+     */
+    @ReadPolicy(ReadConsistency.EVENTUAL)
+    @ApiMethod(
+            name = "getAttendees",
+            path = "conference/{websafeConferenceKey}/attendees",
+            httpMethod = HttpMethod.GET
+    )
+    public Roster getAttendees(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("limit") final Integer limit)
+            throws UnauthorizedException, ForbiddenException, NotFoundException,
+            BadRequestException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        int pageSize = limit == null ? DEFAULT_ATTENDEES_PAGE : limit;
+        if (pageSize < 1 || pageSize > MAX_ATTENDEES_PAGE) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_ATTENDEES_PAGE);
+        }
+        Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+        if (conferenceKey == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        // The organizer's Profile is the parent of the Conference.
+        if (conferenceKey.getParent() == null
+                || !user.getUserId().equals(conferenceKey.getParent().getName())) {
+            throw new ForbiddenException("Only the organizer can see the attendees");
+        }
+        // The Attendees of an archived Conference stay where they were.
+        Map<Key<?>, Object> found = repository().loadAll(conferenceKey,
+                ArchivedConference.keyOf(conferenceKey));
+        if (found.isEmpty()) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+
+        Page<Attendee> page;
+        try {
+            page = repository().getAttendees(conferenceKey, pageToken, pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid pageToken");
+        }
+        List<Key<Profile>> profileKeys = new ArrayList<>(page.getItems().size());
+        for (Attendee attendee : page.getItems()) {
+            profileKeys.add(Key.create(Profile.class, attendee.getUserId()));
+        }
+        Map<Key<Profile>, Profile> profiles = repository().loadAll(profileKeys);
+        List<RosterEntry> entries = new ArrayList<>(page.getItems().size());
+        for (Attendee attendee : page.getItems()) {
+            entries.add(new RosterEntry(attendee,
+                    profiles.get(Key.create(Profile.class, attendee.getUserId()))));
+        }
+        return new Roster(entries, page.getCursor());
     }
 
 
@@ -127,14 +518,68 @@ public class ConferenceApi {
         }
     }
 
+    /**
+     * The reason used when a registration transaction fails unexpectedly.
+     * Outcomes with this reason are never recorded for idempotent replays.
+     */
+    private static final String UNKNOWN_EXCEPTION = "Unknown exception";
+
+    /**
+     * Wraps the work of an idempotent call so that its outcome is recorded in the same
+     * transaction, and a recorded outcome is returned instead of running the work again.
+     *
+     * @param recordKey The key of the IdempotencyRecord, null when the call isn't idempotent.
+     * @param work The work of the call.
+     * @return The work to run in the transaction.
+     */
+    private static Work<WrappedBoolean> recordingOutcome(
+            final Key<IdempotencyRecord> recordKey, final Work<WrappedBoolean> work) {
+        if (recordKey == null) {
+            return work;
+        }
+        return new Work<WrappedBoolean>() {
+            @Override
+            public WrappedBoolean run() {
+                IdempotencyRecord record = repository().load(recordKey);
+                if (record != null) {
+                    return new WrappedBoolean(record.getResult(), record.getReason());
+                }
+                WrappedBoolean result = work.run();
+                if (!UNKNOWN_EXCEPTION.equals(result.getReason())) {
+                    repository().save(new IdempotencyRecord(
+                            recordKey, result.getResult(), result.getReason()));
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Caches the outcome of an idempotent call after its transaction has committed.
+     *
+     * @param recordKey The key of the IdempotencyRecord, null when the call isn't idempotent.
+     * @param result The outcome of the call.
+     */
+    private static void cacheOutcome(Key<IdempotencyRecord> recordKey, WrappedBoolean result) {
+        if (recordKey != null && !UNKNOWN_EXCEPTION.equals(result.getReason())) {
+            IdempotencyService.cache(
+                    new IdempotencyRecord(recordKey, result.getResult(), result.getReason()));
+        }
+    }
+
     /**
      * Register to attend the specified Conference.
      *
+     * When the request carries an idempotency key header, the outcome is recorded with the
+     * registration and a retry with the same key returns the original outcome.
+     *
      * @param user                 An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param request              The HTTP request, used for the optional idempotency key.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException     when there is no Conference with the given conferenceId.
+     * @throws ServiceUnavailableException when the transaction keeps failing on contention.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -143,9 +588,10 @@ public class ConferenceApi {
     )
 
     public WrappedBoolean registerForConference(final User user,
-                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                                HttpServletRequest request)
             throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+            ForbiddenException, ConflictException, ServiceUnavailableException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
@@ -154,9 +600,18 @@ public class ConferenceApi {
         // Get the userId
         final String userId = user.getUserId();
 
+        // A retried call with the same idempotency key is answered from memcache.
+        final Key<IdempotencyRecord> recordKey = IdempotencyService.recordKey(userId, "register",
+                websafeConferenceKey, IdempotencyService.getIdempotencyKey(request));
+        IdempotencyRecord replay = IdempotencyService.getCached(recordKey);
+
         // TODO
         // Start transaction
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        WrappedBoolean result;
+        try {
+            result = replay != null
+                ? new WrappedBoolean(replay.getResult(), replay.getReason())
+                : TRANSACTION_RUNNER.run(recordingOutcome(recordKey, new Work<WrappedBoolean>() {
             public WrappedBoolean run() {
                 try {
 
@@ -166,11 +621,17 @@ public class ConferenceApi {
                     Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
 
                     // TODO
-                    // Get the Conference entity from the datastore
-                    Conference conference = getConference(websafeConferenceKey);
+                    // Get the seat inventory of the Conference and the user's Profile
+                    // from the datastore; both loads run in parallel
+                    Result<ConferenceInventory> inventoryLoad =
+                            repository().loadAsync(ConferenceInventory.keyOf(conferenceKey));
+                    Result<Profile> profileLoad = repository().loadAsync(
+                            Key.create(Profile.class, userId));
+                    ConferenceInventory inventory =
+                            orLegacyInventory(conferenceKey, inventoryLoad.now());
 
                     // 404 when there is no Conference with the given conferenceId.
-                    if (conference == null) {
+                    if (inventory == null) {
                         return new WrappedBoolean(false,
                                 "No Conference found with key: "
                                         + websafeConferenceKey);
@@ -178,13 +639,13 @@ public class ConferenceApi {
 
                     // TODO
                     // Get the user's Profile entity
-                    Profile profile = getProfileFromUser(user);
+                    Profile profile = orNewProfile(user, profileLoad.now());
 
                     // Has the user already registered to attend this conference?
                     if (profile.getConferenceKeysToAttend().contains(
                             websafeConferenceKey)) {
                         return new WrappedBoolean(false, "Already registered");
-                    } else if (conference.getSeatsAvailable() <= 0) {
+                    } else if (inventory.getSeatsAvailable() <= 0) {
                         return new WrappedBoolean(false, "No seats available");
                     } else {
                         // All looks good, go ahead and book the seat
@@ -193,41 +654,60 @@ public class ConferenceApi {
                         // Add the websafeConferenceKey to the profile's
                         // conferencesToAttend property
                         profile.addToConferenceKeysToAttend(websafeConferenceKey);
-                        conference.bookSeats(1);
+                        inventory.bookSeats(1);
                         // TODO
                         // Decrease the conference's seatsAvailable
-                        // You can use the bookSeats() method on Conference
+                        // You can use the bookSeats() method on ConferenceInventory
 
                         // TODO
-                        // Save the Conference and Profile entities
-                        ofy().save().entities(profile, conference).now();
+                        // Save the ConferenceInventory and Profile entities, the
+                        // Attendee for the roster and the notification for the next digest;
+                        // the Conference itself doesn't change
+                        repository().save(profile, inventory,
+                                new Attendee(conferenceKey, userId),
+                                new PendingNotification(Key.create(profile),
+                                        PendingNotification.Type.REGISTERED,
+                                        websafeConferenceKey));
                         // We are booked!
                         return new WrappedBoolean(true, "Registration successful");
                     }
 
+                } catch (ConcurrentModificationException | DatastoreTimeoutException e) {
+                    // Contention, not a business failure: let the runner retry.
+                    throw e;
                 } catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
+                    return new WrappedBoolean(false, UNKNOWN_EXCEPTION);
                 }
             }
-        });
+        }), "registerForConference");
+        } catch (ConcurrentModificationException | DatastoreTimeoutException e) {
+            throw new ServiceUnavailableException("The conference is busy, please try again");
+        }
+        if (replay == null) {
+            cacheOutcome(recordKey, result);
+            if (result.getResult()) {
+                SeatInventory.invalidate(websafeConferenceKey);
+                ChangeFeed.publishSeats(websafeConferenceKey);
+                Trending.record(websafeConferenceKey);
+            }
+        }
         // if result is false
         if (!result.getResult()) {
             if (result.getReason().contains("No Conference found with key")) {
                 throw new NotFoundException(result.getReason());
-            } else if (result.getReason() == "Already registered") {
+            } else if ("Already registered".equals(result.getReason())) {
                 throw new ConflictException("You have already registered");
-            } else if (result.getReason() == "No seats available") {
+            } else if ("No seats available".equals(result.getReason())) {
                 throw new ConflictException("There are no seats available");
             } else {
-                throw new ForbiddenException("Unknown exception");
+                throw new ForbiddenException(UNKNOWN_EXCEPTION);
             }
         }
         return result;
     }
 
 
-    public List<Conference> filterPlayground() {
-        Query<Conference> query = ofy().load().type(Conference.class).order("name");
+    public List<ConferenceResponse> filterPlayground() {
 /*
         // Filter on city
         query = query.filter("city =", "London");
@@ -245,22 +725,24 @@ public class ConferenceApi {
         query = query.filter("month =", 6);
 */
         // multiple sort orders
-        query = query.filter("city =", "Tokyo").filter("seatsAvailable <", 10).
-                filter("seatsAvailable >", 0).order("seatsAvailable").order("name").
-                order("month");
-
-        return query.list();
+        List<Conference> conferences =
+                repository().getConferencesBySeatsAvailable("Tokyo", 0, 10, Integer.MAX_VALUE);
+        return prepareList(conferences, false, FieldMask.ALL);
     }
 
 
     /**
      * Unregister from the specified Conference.     *
      *
+     * Like registerForConference, honors the optional idempotency key header.
+     *
      * @param user                 An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key to unregister  from.
+     * @param request              The HTTP request, used for the optional idempotency key.
      * @return Boolean true when success, otherwise false.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException     when there is no Conference with the given conferenceId.
+     * @throws ServiceUnavailableException when the transaction keeps failing on contention.
      */
     @ApiMethod(
             name = "unregisterFromConference",
@@ -268,36 +750,65 @@ public class ConferenceApi {
             httpMethod = HttpMethod.DELETE)
     public WrappedBoolean unregisterFromConference(
             final User user,
-            @Named("websafeConferenceKey") final String websafeConferenceKey
-    ) throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            HttpServletRequest request
+    ) throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
 
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
 
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        final Key<IdempotencyRecord> recordKey = IdempotencyService.recordKey(user.getUserId(),
+                "unregister", websafeConferenceKey, IdempotencyService.getIdempotencyKey(request));
+        IdempotencyRecord replay = IdempotencyService.getCached(recordKey);
+
+        WrappedBoolean result;
+        try {
+            result = replay != null
+                ? new WrappedBoolean(replay.getResult(), replay.getReason())
+                : TRANSACTION_RUNNER.run(recordingOutcome(recordKey, new Work<WrappedBoolean>() {
             @Override
             public WrappedBoolean run() {
                 Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                // Load the seat inventory and the Profile in parallel.
+                Result<ConferenceInventory> inventoryLoad =
+                        repository().loadAsync(ConferenceInventory.keyOf(conferenceKey));
+                Result<Profile> profileLoad = repository().loadAsync(
+                        Key.create(Profile.class, user.getUserId()));
+                ConferenceInventory inventory =
+                        orLegacyInventory(conferenceKey, inventoryLoad.now());
                 // 404 when there is no Conference with the given conferenceId.
-                if (conference == null) {
+                if (inventory == null) {
                     return new  WrappedBoolean(false,
                             "No Conference found with key: " + websafeConferenceKey);
                 }
 
                 // Un-registering from the Conference.
-                Profile profile = getProfileFromUser(user);
+                Profile profile = orNewProfile(user, profileLoad.now());
                 if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
                     profile.unregisterFromConference(websafeConferenceKey);
-                    conference.giveBackSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                    inventory.giveBackSeats(1);
+                    repository().save(profile, inventory, new PendingNotification(
+                            Key.create(profile), PendingNotification.Type.UNREGISTERED,
+                            websafeConferenceKey));
+                    repository().delete(Attendee.keyOf(conferenceKey, user.getUserId()));
                     return new WrappedBoolean(true);
                 } else {
                     return new WrappedBoolean(false, "You are not registered for this conference");
                 }
             }
-        });
+        }), "unregisterFromConference");
+        } catch (ConcurrentModificationException | DatastoreTimeoutException e) {
+            throw new ServiceUnavailableException("The conference is busy, please try again");
+        }
+        if (replay == null) {
+            cacheOutcome(recordKey, result);
+            if (result.getResult()) {
+                SeatInventory.invalidate(websafeConferenceKey);
+                ChangeFeed.publishSeats(websafeConferenceKey);
+            }
+        }
         // if result is false
         if (!result.getResult()) {
             if (result.getReason().contains("No Conference found with key")) {
@@ -312,30 +823,195 @@ public class ConferenceApi {
 
     }
 
+    /**
+     * Holds a seat of a Conference for a few minutes, checkout style.
+     *
+     * The hold comes from the hold pool of the Conference and doesn't touch its seat
+     * inventory, so many users can hold seats at the same time. A user who already holds a
+     * seat of the Conference gets the same hold back.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the SeatHold, with the token to confirm or release it.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when there is no Conference with the given key.
+     * @throws ConflictException     when the user is registered already or no seat can be held.
+     * @throws ServiceUnavailableException when the transaction keeps failing on contention.
+     */
+    @ApiMethod(
+            name = "holdSeat",
+            path = "conference/{websafeConferenceKey}/hold",
+            httpMethod = HttpMethod.POST
+    )
+    public SeatHold holdSeat(final User user,
+                             @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ConflictException,
+            ServiceUnavailableException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+        if (conferenceKey == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        Profile profile = repository().load(Key.create(Profile.class, user.getUserId()));
+        if (profile != null && profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+            throw new ConflictException("You have already registered");
+        }
+        SeatHold hold;
+        try {
+            hold = SeatHolds.hold(user.getUserId(), conferenceKey);
+        } catch (ConcurrentModificationException | DatastoreTimeoutException e) {
+            throw new ServiceUnavailableException("The conference is busy, please try again");
+        }
+        if (hold == null) {
+            if (repository().load(conferenceKey) == null) {
+                throw new NotFoundException("No Conference found with key: "
+                        + websafeConferenceKey);
+            }
+            throw new ConflictException("There are no seats available");
+        }
+        return hold;
+    }
+
+    /**
+     * Turns a seat hold into a registration.
+     *
+     * The transaction writes only the hold slot and the Profile; the seat left the inventory
+     * when the slot was allocated. The Attendee is saved by a task added in the transaction,
+     * which keeps the organizer's entity group out of it yet can't be lost.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param token                The token of the hold, from holdSeat.
+     * @return Boolean true when success.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when the token isn't a hold token of the Conference.
+     * @throws ConflictException     when the hold has expired or the user is registered already.
+     * @throws ServiceUnavailableException when the transaction keeps failing on contention.
+     */
+    @ApiMethod(
+            name = "confirmSeatHold",
+            path = "conference/{websafeConferenceKey}/hold/{token}/confirm",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean confirmSeatHold(final User user,
+                                          @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                          @Named("token") final String token)
+            throws UnauthorizedException, NotFoundException, ConflictException,
+            ServiceUnavailableException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final String userId = user.getUserId();
+        final Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+        final Key<SeatHoldSlot> slotKey =
+                conferenceKey == null ? null : SeatHolds.slotKeyOf(conferenceKey, token);
+        if (slotKey == null) {
+            throw new NotFoundException("No seat hold found with token: " + token);
+        }
+
+        WrappedBoolean result;
+        try {
+            result = TRANSACTION_RUNNER.run(new Work<WrappedBoolean>() {
+                @Override
+                public WrappedBoolean run() {
+                    // Load the slot and the Profile in parallel.
+                    Result<SeatHoldSlot> slotLoad = repository().loadAsync(slotKey);
+                    Result<Profile> profileLoad =
+                            repository().loadAsync(Key.create(Profile.class, userId));
+                    SeatHoldSlot slot = slotLoad.now();
+                    if (slot == null || !slot.isHeldBy(userId, token, new Date())) {
+                        return new WrappedBoolean(false, "The seat hold has expired");
+                    }
+                    Profile profile = orNewProfile(user, profileLoad.now());
+                    if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                        // Registered meanwhile through registerForConference.
+                        slot.free();
+                        repository().save(slot);
+                        return new WrappedBoolean(false, "Already registered");
+                    }
+                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                    slot.confirm();
+                    repository().save(profile, slot, new PendingNotification(Key.create(profile),
+                            PendingNotification.Type.REGISTERED, websafeConferenceKey));
+                    SeatHolds.addAttendeeTask(conferenceKey, userId);
+                    return new WrappedBoolean(true, "Registration successful");
+                }
+            }, "confirmSeatHold");
+        } catch (ConcurrentModificationException | DatastoreTimeoutException e) {
+            throw new ServiceUnavailableException("The conference is busy, please try again");
+        }
+        if (!result.getResult()) {
+            throw new ConflictException("Already registered".equals(result.getReason())
+                    ? "You have already registered" : result.getReason());
+        }
+        Trending.record(websafeConferenceKey);
+        Metrics.increment("seatHolds.confirmed");
+        return result;
+    }
+
+    /**
+     * Gives up a seat hold before it expires, so another user can hold the seat.
+     *
+     * @param user                 An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param token                The token of the hold, from holdSeat.
+     * @return Boolean true when success.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException     when the user holds no seat with the token.
+     */
+    @ApiMethod(
+            name = "releaseSeatHold",
+            path = "conference/{websafeConferenceKey}/hold/{token}",
+            httpMethod = HttpMethod.DELETE
+    )
+    public WrappedBoolean releaseSeatHold(final User user,
+                                          @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                          @Named("token") final String token)
+            throws UnauthorizedException, NotFoundException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+        if (conferenceKey == null || !SeatHolds.release(user.getUserId(), conferenceKey, token)) {
+            throw new NotFoundException("No seat hold found with token: " + token);
+        }
+        Metrics.increment("seatHolds.released");
+        return new WrappedBoolean(true);
+    }
+
 
 
 
     /**
  * Returns a collection of Conference Object that the user is going to attend.
  *
+ * Conferences already moved to the archive are rebuilt from it, at the cost of one more
+ * batched get.
+ *
  * @param user An user who invokes this method, null when the user is not signed in.
+ * @param select The properties to return, comma separated, optional.
  * @return a Collection of Conferences that the user is going to attend.
  * @throws UnauthorizedException when the User object is null.
+ * @throws BadRequestException when select names an unknown property.
  */
 @ApiMethod(
         name = "getConferencesToAttend",
         path = "getConferencesToAttend",
         httpMethod = HttpMethod.GET
 )
-public Collection<Conference> getConferencesToAttend(final User user)
-        throws UnauthorizedException, NotFoundException {
+public Collection<ConferenceResponse> getConferencesToAttend(final User user,
+        @Nullable @Named("select") final String select)
+        throws UnauthorizedException, NotFoundException, BadRequestException {
         // If not signed in, throw a 401 error.
         if (user == null) {
         throw new UnauthorizedException("Authorization required");
         }
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
         // TODO
         // Get the Profile entity for the user
-        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();// Change this;
+        Profile profile = repository().load(Key.create(Profile.class, user.getUserId()));
         if (profile == null) {
         throw new NotFoundException("Profile doesn't exist.");
         }
@@ -352,7 +1028,30 @@ public Collection<Conference> getConferencesToAttend(final User user)
         for (String keyString : keyStringsToAttend) {
             keysToAttend.add(Key.<Conference>create(keyString));
         }
-        return ofy().load().keys(keysToAttend).values();
+        Map<Key<Conference>, Conference> loaded = repository().loadAll(keysToAttend);
+
+        // Conferences that ended long ago were moved to the archive.
+        List<Key<ArchivedConference>> archivedKeys = new ArrayList<>();
+        for (Key<Conference> key : keysToAttend) {
+            if (!loaded.containsKey(key)) {
+                archivedKeys.add(ArchivedConference.keyOf(key));
+            }
+        }
+        if (!archivedKeys.isEmpty()) {
+            loaded = new HashMap<>(loaded);
+            for (ArchivedConference archived : repository().loadAll(archivedKeys).values()) {
+                loaded.put(archived.getConferenceKey(), archived.toConference());
+            }
+        }
+
+        List<Conference> conferences = new ArrayList<>(keysToAttend.size());
+        for (Key<Conference> key : keysToAttend) {
+            Conference conference = loaded.get(key);
+            if (conference != null) {
+                conferences.add(conference);
+            }
+        }
+        return prepareList(conferences, false, fieldMask);
 }
 
 
@@ -365,8 +1064,16 @@ public Collection<Conference> getConferencesToAttend(final User user)
      */
     private static Profile getProfileFromUser(User user) {
         // First fetch the user's Profile from the datastore.
-        Profile profile = ofy().load().key(
-                Key.create(Profile.class, user.getUserId())).now();
+        return orNewProfile(user, repository().load(Key.create(Profile.class, user.getUserId())));
+    }
+
+    /**
+     * Returns the loaded Profile of the user, or a new one with default values.
+     * @param user the user.
+     * @param profile the user's Profile as loaded, null when there is none.
+     * @return user's Profile
+     */
+    private static Profile orNewProfile(User user, Profile profile) {
         if (profile == null) {
             // Create a new Profile if it doesn't exist.
             // Use default displayName and teeShirtSize
@@ -377,6 +1084,141 @@ public Collection<Conference> getConferencesToAttend(final User user)
         return profile;
     }
 
+    /**
+     * Returns the loaded seat inventory of a Conference, or for a Conference created before
+     * inventories were split out, one built from its legacy fields.
+     *
+     * @param conferenceKey the Conference key.
+     * @param inventory the ConferenceInventory as loaded, null when there is none.
+     * @return the ConferenceInventory, or null when there is no such Conference.
+     */
+    private static ConferenceInventory orLegacyInventory(Key<Conference> conferenceKey,
+                                                         ConferenceInventory inventory) {
+        if (inventory == null) {
+            // A Conference created before inventories were split out has none yet.
+            Conference conference = repository().load(conferenceKey);
+            if (conference != null) {
+                inventory = conference.getInventory();
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Returns the archived conferences passing all filters, the most recently ended first.
+     *
+     * The archive has no indexes for the filters, so they are applied in memory to the
+     * MAX_ARCHIVED_CONFERENCES most recent ones.
+     *
+     * @param filters the filters, as in ConferenceQueryForm.
+     * @return the matching conferences, rebuilt from the archive.
+     */
+    private static List<Conference> getArchivedConferences(List<Filter> filters) {
+        List<Conference> conferences = new ArrayList<>();
+        for (ArchivedConference archived
+                : repository().getArchivedConferences(MAX_ARCHIVED_CONFERENCES)) {
+            Conference conference = archived.toConference();
+            boolean matches = true;
+            for (Filter filter : filters) {
+                matches = matches && QueryPlanner.matches(filter, conference);
+            }
+            if (matches) {
+                conferences.add(conference);
+            }
+        }
+        return conferences;
+    }
+
+    /**
+     * Parses a websafe key that should be a Conference key.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the key, or null when the string is not a Conference key.
+     */
+    private static Key<Conference> parseConferenceKey(String websafeConferenceKey) {
+        Key<Conference> key;
+        try {
+            key = Key.create(websafeConferenceKey);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return Key.getKind(Conference.class).equals(key.getKind()) ? key : null;
+    }
+
+    /**
+     * Loads the organizers of conferences with one batched get and attaches their display
+     * names, so serializing organizerDisplayName doesn't cost a get per Conference.
+     *
+     * @param conferences the conferences about to be returned.
+     */
+    private static void attachOrganizers(Collection<Conference> conferences) {
+        Set<Key<Profile>> organizerKeys = new HashSet<>();
+        for (Conference conference : conferences) {
+            organizerKeys.add(conference.getProfileKey());
+        }
+        Map<Key<Profile>, Profile> organizers = repository().loadAll(organizerKeys);
+        for (Conference conference : conferences) {
+            conference.attachOrganizer(organizers.get(conference.getProfileKey()));
+        }
+    }
+
+    /**
+     * Parses the select parameter of an API call.
+     *
+     * @param select the comma separated properties, or null for all of them.
+     * @param known the properties of the returned type.
+     * @return the FieldMask.
+     * @throws BadRequestException when select names an unknown property.
+     */
+    private static FieldMask parseFields(String select, Set<String> known)
+            throws BadRequestException {
+        FieldMask fieldMask;
+        try {
+            fieldMask = FieldMask.parse(select, known);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (!fieldMask.isAll()) {
+            ResponseStats.propertiesSelected();
+        }
+        return fieldMask;
+    }
+
+    /**
+     * Prepares conferences for a list response: wraps them with the field mask, leaving their
+     * descriptions out unless asked for, and, when seats are part of the response, loads
+     * their seat inventories with one batched get and attaches them, so serializing
+     * seatsAvailable doesn't cost a get per Conference.
+     *
+     * @param conferences the conferences about to be returned.
+     * @param includeDescription whether to keep the descriptions.
+     * @param fieldMask the selected properties; selecting description also keeps them.
+     * @return the responses, in the order of the conferences.
+     */
+    private static List<ConferenceResponse> prepareList(Collection<Conference> conferences,
+                                                        boolean includeDescription,
+                                                        FieldMask fieldMask) {
+        List<ConferenceResponse> responses =
+                ConferenceResponse.of(conferences, fieldMask, includeDescription);
+        if (!fieldMask.includes("seatsAvailable") && !fieldMask.includes("seatsVersion")) {
+            return responses;
+        }
+        List<Key<ConferenceInventory>> inventoryKeys = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            inventoryKeys.add(ConferenceInventory.keyOf(conference.getKey()));
+        }
+        Map<Key<ConferenceInventory>, ConferenceInventory> inventories =
+                repository().loadAll(inventoryKeys);
+        for (Conference conference : conferences) {
+            ConferenceInventory inventory =
+                    inventories.get(ConferenceInventory.keyOf(conference.getKey()));
+            if (inventory != null) {
+                conference.attachInventory(inventory);
+            }
+        }
+        return responses;
+    }
+
     /**
      * Creates a new Conference object and stores it to the datastore.
      *
@@ -384,10 +1226,11 @@ public Collection<Conference> getConferencesToAttend(final User user)
      * @param conferenceForm A ConferenceForm object representing user's inputs.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws ServiceUnavailableException when the transaction keeps failing on contention.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
     public Conference createConference(final User user, final ConferenceForm conferenceForm)
-            throws UnauthorizedException {
+            throws UnauthorizedException, ServiceUnavailableException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
@@ -404,15 +1247,16 @@ public Collection<Conference> getConferencesToAttend(final User user)
         // TODO (Lesson 4)
         // Allocate a key for the conference -- let App Engine allocate the ID
         // Don't forget to include the parent Profile in the allocated ID
-        final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
+        final Key<Conference> conferenceKey = repository().allocateConferenceKey(profileKey);
 
 
         // TODO (Lesson 4)
         // Get the Conference Id from the Key
         final long conferenceId = conferenceKey.getId();
 
-        final Queue queue = QueueFactory.getDefaultQueue();
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference;
+        try {
+            conference = TRANSACTION_RUNNER.run(new Work<Conference>() {
             @Override
             public Conference run() {
 
@@ -428,72 +1272,123 @@ public Collection<Conference> getConferencesToAttend(final User user)
             Conference conference = new Conference(conferenceId, userId, conferenceForm);
 
             // TODO (Lesson 4)
-            // Save Conference and Profile Entities
-            ofy().save().entities(profile, conference).now();
-                queue.add(ofy().getTransaction(),
-                        TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
-                                .param("email", profile.getMainEmail())
-                                .param("conferenceInfo", conference.toString()));
+            // Save Conference and Profile Entities; an unchanged Profile isn't written again.
+            // The confirmation goes out with the organizer's next digest.
+            PendingNotification notification = new PendingNotification(Key.create(profile),
+                    PendingNotification.Type.CONFERENCE_CREATED, conferenceKey.getString());
+            if (profile.isDirty()) {
+                repository().save(profile, conference, conference.getInventory(), notification);
+            } else {
+                repository().save(conference, conference.getInventory(), notification);
+            }
                 return conference;
         }
-    });
+    }, "createConference");
+        } catch (ConcurrentModificationException | DatastoreTimeoutException e) {
+            throw new ServiceUnavailableException("Your profile is busy, please try again");
+        }
 
         return conference;
     }
 
 
+    @ReadPolicy(ReadConsistency.EVENTUAL)
     @ApiMethod(
             name = "queryConferences",
             path = "queryConferences",
             httpMethod = HttpMethod.POST
     )
-    public List queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
+    public List queryConferences(ConferenceQueryForm conferenceQueryForm,
+            @Nullable @Named("includeDescription") final Boolean includeDescription,
+            @Nullable @Named("select") final String select,
+            @Nullable @Named("includeArchived") final Boolean includeArchived)
+            throws BadRequestException {
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
+        QueryPlan plan = conferenceQueryForm.getPlan();
+        long start = System.currentTimeMillis();
+        Iterable<Conference> conferenceIterable =
+                repository().queryConferences(plan.getIndexFilters(), plan.getOrderBy());
         List<Conference> result = new ArrayList<>();
-        List<Key<Profile>> organizersKeyList = new ArrayList<>();
         for (Conference conference : conferenceIterable) {
-            organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
+            if (!plan.matches(conference)) {
+                continue;
+            }
             result.add(conference);
         }
-        // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
-        ofy().load().keys(organizersKeyList);
-        return result;
+        // Profiled by the shape the client asked for, as the post filters are part of the cost.
+        QueryProfiler.record(conferenceQueryForm.getFilters(), plan.getOrderBy(),
+                System.currentTimeMillis() - start, result.size());
+        if (Boolean.TRUE.equals(includeArchived)) {
+            result.addAll(getArchivedConferences(conferenceQueryForm.getFilters()));
+        }
+        // To avoid separate datastore gets for each Conference, batch-load the Profiles
+        // and the seat inventories, unless they are left out of the response.
+        if (fieldMask.includes("organizerDisplayName")) {
+            attachOrganizers(result);
+        }
+        return prepareList(result, Boolean.TRUE.equals(includeDescription), fieldMask);
     }
 
 
 
+    /**
+     * Returns the plan queryConferences would run for the given filters.
+     *
+     * @param conferenceQueryForm The filters to explain.
+     * @return the chosen index, datastore filters, in-memory filters and estimated cost.
+     */
+    @ApiMethod(
+            name = "explainQuery",
+            path = "explainQuery",
+            httpMethod = HttpMethod.POST
+    )
+    public QueryPlan explainQuery(ConferenceQueryForm conferenceQueryForm) {
+        return conferenceQueryForm.getPlan();
+    }
+
+
+    @ReadPolicy(ReadConsistency.EVENTUAL)
     @ApiMethod(
             name = "getConferencesCreated",
             path = "getConferencesCreated",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> getConferencesCreated(final User user) throws UnauthorizedException {
+    public List<ConferenceResponse> getConferencesCreated(final User user,
+            @Nullable @Named("select") final String select)
+            throws UnauthorizedException, BadRequestException {
         if (user == null) {
             throw new UnauthorizedException("Autorizacion requerida");
         }
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
         // TODO (Lesson 4)
         // Get the userId of the logged in User
         String userId = user.getUserId();
 
-        Key userKey = Key.create(Profile.class, userId);
-        Query query = ofy().load().type(Conference.class).ancestor(userKey).order("name");
-
-        return query.list();
+        Key<Profile> userKey = Key.create(Profile.class, userId);
+        List<Conference> conferences = repository().getConferencesByOrganizer(userKey);
+        return prepareList(conferences, false, fieldMask);
     }
 
+    @ReadPolicy(ReadConsistency.EVENTUAL)
     @ApiMethod(
             name = "getConferencesFiltered",
             path = "getConferencesFiltered",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> getConferencesFiltered(){
-        Query query = ofy().load().type(Conference.class);
-        query = query.filter("maxAttendees >",10);
-        query = query.filter("city =", "London");
-        query = query.filter("topics =", "Web Technologies");
-        query = query.filter("month =", 1) .order("maxAttendees").order("name");
-        return query.list();
-
+    public List<ConferenceResponse> getConferencesFiltered(
+            @Nullable @Named("select") final String select) throws BadRequestException {
+        FieldMask fieldMask = parseFields(select, ConferenceResponse.FIELDS);
+        List<Filter> filters = Arrays.asList(
+                new Filter(Field.MAX_ATTENDEES, Operator.GT, "10"),
+                new Filter(Field.CITY, Operator.EQ, "London"),
+                new Filter(Field.TOPIC, Operator.EQ, "Web Technologies"),
+                new Filter(Field.MONTH, Operator.EQ, "1"));
+        List<String> orderBy = Arrays.asList("maxAttendees", "name");
+        long start = System.currentTimeMillis();
+        List<Conference> conferences = repository().queryConferences(filters, orderBy);
+        QueryProfiler.record(filters, orderBy, System.currentTimeMillis() - start,
+                conferences.size());
+        return prepareList(conferences, false, fieldMask);
     }
 
 
@@ -515,9 +1410,13 @@ public Collection<Conference> getConferencesToAttend(final User user)
      *            A User object injected by the cloud endpoints.
      * @param profileForm
      *            A ProfileForm object sent from the client form.
+     * @param select
+     *            The properties to return, comma separated, optional.
      * @return Profile object just created.
      * @throws UnauthorizedException
      *             when the User object is null.
+     * @throws BadRequestException
+     *             when select names an unknown property.
      */
 
     // Declare this method as a method available externally through Endpoints
@@ -527,7 +1426,9 @@ public Collection<Conference> getConferencesToAttend(final User user)
 
     // TODO 1 Pass the ProfileForm parameter
     // TODO 2 Pass the User parameter
-    public Profile saveProfile(User user, ProfileForm profileForm) throws UnauthorizedException {
+    public ProfileResponse saveProfile(User user, ProfileForm profileForm,
+            @Nullable @Named("select") final String select)
+            throws UnauthorizedException, BadRequestException {
 
         String userId = null;
         String mainEmail = null;
@@ -561,7 +1462,8 @@ public Collection<Conference> getConferencesToAttend(final User user)
         // Create a new Profile entity from the
         // userId, displayName, mainEmail and teeShirtSize
 
-        Profile profile = getProfile(user);
+        FieldMask fieldMask = parseFields(select, ProfileResponse.FIELDS);
+        Profile profile = repository().load(Key.create(Profile.class, userId));
         // TODO 3 (In Lesson 3)
         // Save the Profile entity in the datastore
         if(profile == null)
@@ -570,9 +1472,15 @@ public Collection<Conference> getConferencesToAttend(final User user)
             if (!(displayName.equals(def)))
                 profile.update(displayName, teeShirtSize);
         }
+        // Write only real changes, so an unchanged Profile keeps its cache entry.
+        if (profile.isDirty()) {
+            repository().save(profile);
+            profile.markClean();
+        } else {
+            Metrics.increment("profile.save.unchanged");
+        }
         // Return the profile
-        ofy().save().entity(profile).now();
-        return profile;
+        return new ProfileResponse(profile, fieldMask);
     }
 
     /**
@@ -581,22 +1489,29 @@ public Collection<Conference> getConferencesToAttend(final User user)
      *
      * @param user
      *            A User object injected by the cloud endpoints.
+     * @param select
+     *            The properties to return, comma separated, optional.
      * @return Profile object.
      * @throws UnauthorizedException
      *             when the User object is null.
+     * @throws BadRequestException
+     *             when select names an unknown property.
      */
     @ApiMethod(name = "getProfile", path = "profile", httpMethod = HttpMethod.GET)
-    public Profile getProfile(final User user) throws UnauthorizedException {
+    public ProfileResponse getProfile(final User user,
+                                      @Nullable @Named("select") final String select)
+            throws UnauthorizedException, BadRequestException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        FieldMask fieldMask = parseFields(select, ProfileResponse.FIELDS);
 
         // TODO
         // load the Profile Entity
         String userId = user.getUserId(); // TODO
-        Key key = Key.create(Profile.class, userId); // TODO
-        Profile profile = (Profile) ofy().load().key(key).now(); // TODO load the Profile entity
-        return profile;
+        Key<Profile> key = Key.create(Profile.class, userId); // TODO
+        Profile profile = repository().load(key); // TODO load the Profile entity
+        return profile == null ? null : new ProfileResponse(profile, fieldMask);
     }
 
 
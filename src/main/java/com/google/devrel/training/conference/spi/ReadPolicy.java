@@ -0,0 +1,22 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.devrel.training.conference.service.ReadConsistency;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The read consistency of an API method, applied by EntitySessionFilter to the EntitySession
+ * of each call. Methods without it read with STRONG consistency.
+ *
+ * The system property conference.readPolicy.{method} overrides it, e.g. to compare the
+ * latency of a method under both policies.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ReadPolicy {
+
+    ReadConsistency value();
+}
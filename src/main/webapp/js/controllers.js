@@ -287,6 +287,13 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.conferences = [];
 
+    /**
+     * The conference properties the list shows, so the backend skips the others.
+     * @type {string}
+     */
+    var LIST_PROPERTIES = 'websafeKey,name,city,startDate,maxAttendees,seatsAvailable,' +
+        'organizerDisplayName';
+
     /**
      * Holds the state if offcanvas is enabled.
      *
@@ -435,6 +442,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
             }
         }
         $scope.loading = true;
+        sendFilters.select = LIST_PROPERTIES;
         gapi.client.conference.queryConferences(sendFilters).
             execute(function (resp) {
                 $scope.$apply(function () {
@@ -467,7 +475,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.getConferencesCreated = function () {
         $scope.loading = true;
-        gapi.client.conference.getConferencesCreated().
+        gapi.client.conference.getConferencesCreated({select: LIST_PROPERTIES}).
             execute(function (resp) {
                 $scope.$apply(function () {
                     $scope.loading = false;
@@ -505,7 +513,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.getConferencesAttend = function () {
         $scope.loading = true;
-        gapi.client.conference.getConferencesToAttend().
+        gapi.client.conference.getConferencesToAttend({select: LIST_PROPERTIES}).
             execute(function (resp) {
                 $scope.$apply(function () {
                     if (resp.error) {
@@ -541,19 +549,30 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
  * @description
  * A controller used for the conference detail page.
  */
-conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, HTTP_ERRORS) {
+conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, $http, $timeout, HTTP_ERRORS) {
     $scope.conference = {};
 
     $scope.isUserAttending = false;
 
+    /**
+     * Set when the page is left, to stop watching for updates.
+     * @type {boolean}
+     */
+    $scope.stopWatching = false;
+
+    $scope.$on('$destroy', function () {
+        $scope.stopWatching = true;
+    });
+
     /**
      * Initializes the conference detail page.
-     * Invokes the conference.getConference method and sets the returned conference in the $scope.
+     * Invokes the conference.conferenceDetail method, which returns the conference and whether
+     * the user is attending it in one call, and sets them in the $scope.
      *
      */
     $scope.init = function () {
         $scope.loading = true;
-        gapi.client.conference.getConference({
+        gapi.client.conference.conferenceDetail({
             websafeConferenceKey: $routeParams.websafeConferenceKey
         }).execute(function (resp) {
             $scope.$apply(function () {
@@ -568,34 +587,74 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
                 } else {
                     // The request has succeeded.
                     $scope.alertStatus = 'success';
-                    $scope.conference = resp.result;
+                    $scope.conference = resp.result.conference;
+                    $scope.conference.organizerDisplayName = resp.result.organizerDisplayName;
+                    if (resp.result.registered) {
+                        // The user is attending the conference.
+                        $scope.alertStatus = 'info';
+                        $scope.messages = 'You are attending this conference';
+                        $scope.isUserAttending = true;
+                    }
+                    $scope.watchUpdates();
+                    $scope.getSimilarConferences();
                 }
             });
         });
+    };
 
-        $scope.loading = true;
-        // If the user is attending the conference, updates the status message and available function.
-        gapi.client.conference.getProfile().execute(function (resp) {
+    /**
+     * Invokes the conference.getSimilarConferences method.
+     */
+    $scope.getSimilarConferences = function () {
+        gapi.client.conference.getSimilarConferences({
+            websafeConferenceKey: $routeParams.websafeConferenceKey
+        }).execute(function (resp) {
             $scope.$apply(function () {
-                $scope.loading = false;
                 if (resp.error) {
-                    // Failed to get a user profile.
+                    $log.error('Failed to get the similar conferences: ' + resp.error.message);
                 } else {
-                    var profile = resp.result;
-                    for (var i = 0; i < profile.conferenceKeysToAttend.length; i++) {
-                        if ($routeParams.websafeConferenceKey == profile.conferenceKeysToAttend[i]) {
-                            // The user is attending the conference.
-                            $scope.alertStatus = 'info';
-                            $scope.messages = 'You are attending this conference';
-                            $scope.isUserAttending = true;
-                        }
-                    }
+                    $scope.similarConferences = resp.result.items || [];
                 }
             });
         });
     };
 
 
+    /**
+     * Long-polls the /updates servlet for seat and announcement changes of this conference
+     * until the page is left. Each request carries the ETag of the last response; the servlet
+     * holds it until something changes or answers an empty 304 after about 25 seconds, and
+     * the next request goes out right away. Errors back off for a while.
+     */
+    $scope.watchUpdates = function () {
+        if ($scope.stopWatching) {
+            return;
+        }
+        var headers = {};
+        if ($scope.updatesEtag) {
+            headers['If-None-Match'] = $scope.updatesEtag;
+        }
+        $http.get('/updates', {params: {keys: $routeParams.websafeConferenceKey}, headers: headers}).
+            success(function (data, status, responseHeaders) {
+                for (var i = 0; i < data.seats.length; i++) {
+                    if (data.seats[i].websafeConferenceKey == $routeParams.websafeConferenceKey) {
+                        $scope.conference.seatsAvailable = data.seats[i].seatsAvailable;
+                    }
+                }
+                $scope.announcement = data.announcement;
+                $scope.updatesEtag = responseHeaders('ETag');
+                $scope.watchUpdates();
+            }).
+            error(function (data, status) {
+                if (status == 304) {
+                    $scope.watchUpdates();
+                } else {
+                    // Wait a while before polling again.
+                    $timeout($scope.watchUpdates, 10000);
+                }
+            });
+    };
+
     /**
      * Invokes the conference.registerForConference method.
      */
@@ -0,0 +1,117 @@
+package com.google.devrel.training.conference.spi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceBatch;
+import com.google.devrel.training.conference.domain.ConferenceResponse;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceKeysForm;
+import com.google.devrel.training.conference.service.EntitySession;
+import com.google.devrel.training.conference.service.RepositoryService;
+import com.googlecode.objectify.ObjectifyFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Checks the RPC budget of the booking path, as counted by the request's EntitySession.
+ */
+public class ConferenceApiRpcBudgetTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+            new LocalMemcacheServiceTestConfig(),
+            new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    private final ConferenceApi conferenceApi = new ConferenceApi();
+
+    private final User organizer = new User("organizer@example.com", "gmail.com", "organizer");
+
+    private final User attendee = new User("attendee@example.com", "gmail.com", "attendee");
+
+    private Conference first;
+
+    private Conference second;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        first = conferenceApi.createConference(organizer, conferenceForm("First"));
+        second = conferenceApi.createConference(organizer, conferenceForm("Second"));
+    }
+
+    @After
+    public void tearDown() {
+        RepositoryService.closeSession();
+        ObjectifyFilter.complete();
+        helper.tearDown();
+    }
+
+    @Test
+    public void registerForConference() throws Exception {
+        EntitySession session = RepositoryService.openSession();
+        conferenceApi.registerForConference(attendee, first.getWebsafeKey(), null);
+
+        // Begin, the parallel loads of the inventory and the Profile, one batched save and
+        // the commit.
+        assertEquals(5, session.getRpcCount());
+        assertEquals(0, session.getDedupedCount());
+    }
+
+    @Test
+    public void getConferences() throws Exception {
+        conferenceApi.registerForConference(attendee, first.getWebsafeKey(), null);
+        EntitySession session = RepositoryService.openSession();
+        ConferenceKeysForm form = new ConferenceKeysForm(
+                Arrays.asList(first.getWebsafeKey(), second.getWebsafeKey()));
+
+        ConferenceBatch batch = conferenceApi.getConferences(form, null, null);
+        assertEquals(2, batch.getItems().size());
+        assertTrue(batch.getNotFound().isEmpty());
+        // One batched get each for the conferences, their organizer and their inventories.
+        assertEquals(3, session.getRpcCount());
+        assertEquals(0, session.getDedupedCount());
+
+        // Serializing the responses costs nothing more.
+        for (ConferenceResponse response : batch.getItems()) {
+            assertEquals("organizer", response.getOrganizerDisplayName());
+        }
+        assertEquals(99, (int) batch.getItems().get(0).getSeatsAvailable());
+        assertEquals(100, (int) batch.getItems().get(1).getSeatsAvailable());
+        assertEquals(3, session.getRpcCount());
+
+        // The same keys again in the same request are answered by the session.
+        conferenceApi.getConferences(form, null, null);
+        assertEquals(3, session.getRpcCount());
+        assertEquals(5, session.getDedupedCount());
+    }
+
+    @Test
+    public void getConferencesWithUnknownKeys() throws Exception {
+        EntitySession session = RepositoryService.openSession();
+        ConferenceKeysForm form = new ConferenceKeysForm(
+                Arrays.asList(first.getWebsafeKey(), "not a key"));
+
+        ConferenceBatch batch = conferenceApi.getConferences(form, null, null);
+        assertEquals(1, batch.getItems().size());
+        assertEquals(Collections.singletonList("not a key"), batch.getNotFound());
+        assertEquals(3, session.getRpcCount());
+    }
+
+    private static ConferenceForm conferenceForm(String name) {
+        return new ConferenceForm(name, "A conference", Arrays.asList("Java"), "London",
+                new Date(), new Date(), 100);
+    }
+}